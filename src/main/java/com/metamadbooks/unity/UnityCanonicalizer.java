@@ -0,0 +1,430 @@
+package com.metamadbooks.unity;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Writes Unity documents in canonical form and computes subtree hashes.
+ * <p>
+ * Two documents that differ only in whitespace, number formatting or
+ * attribute order have the same canonical form. The canonical form is
+ * Unity markup with:
+ * <ul>
+ *   <li>no whitespace outside strings</li>
+ *   <li>attributes sorted by name (in UTF-16 code unit order, as
+ *       {@link String#compareTo}), and an empty attributes object omitted</li>
+ *   <li>numbers written in their shortest form, using the ECMAScript
+ *       {@code Number.prototype.toString} layout but keeping every significant
+ *       digit, e.g. {@code 1.50} becomes {@code 1.5} and {@code 1E3} becomes {@code 1000}</li>
+ *   <li>strings escaped minimally: only {@code "}, {@code \}, control characters
+ *       and unpaired surrogates are escaped; everything else is written as UTF-8</li>
+ * </ul>
+ * <p>
+ * The document is streamed, so memory use is bounded by the nesting depth and
+ * the size of a single attributes object, not by the size of the document.
+ * <p>
+ * Each production also gets a Merkle-style SHA-256 hash computed in the same
+ * pass. A production's hash covers its canonical name, attributes and text,
+ * and the hashes (not the bytes) of its child productions, so productions
+ * with equal canonical forms have equal hashes wherever they appear, and every
+ * byte is hashed only once however deeply it is nested.
+ */
+public class UnityCanonicalizer {
+
+    /** Marks a primitive content item in a production's hash input. */
+    static final byte TEXT_ITEM = 0x01;
+
+    /** Marks a child production's hash in its parent's hash input. */
+    static final byte CHILD_ITEM = 0x02;
+
+    /**
+     * The hash of a production, reported as soon as the production ends.
+     *
+     * @param ordinal position of the production in document order (the root is 0),
+     *                matching the ordinals of {@link UnityIndex}
+     * @param depth   nesting depth (0 for the root)
+     * @param name    the element name
+     * @param start   byte offset of the production's opening bracket in the input
+     * @param end     byte offset just past the closing bracket in the input
+     * @param hash    SHA-256 hash of the production
+     */
+    public record SubtreeHash(int ordinal, int depth, String name, long start, long end, byte[] hash) {
+
+        /** Returns the hash as a lowercase hex string. */
+        public String hex() {
+            return HexFormat.of().formatHex(hash);
+        }
+    }
+
+    /**
+     * Writes the canonical form of a Unity document.
+     * <p>
+     * If the result has errors, the output is incomplete and must be discarded.
+     *
+     * @param in  the UTF-8 encoded Unity document
+     * @param out where to write the canonical form, as UTF-8
+     * @return ValidationResult containing any errors found
+     */
+    public ValidationResult canonicalize(InputStream in, OutputStream out) throws IOException {
+        return canonicalize(in, out, hash -> {
+        });
+    }
+
+    /**
+     * Writes the canonical form of a Unity document and reports the hash of
+     * every production. Hashes are reported in the order productions end, so
+     * children are reported before their parents and the root comes last.
+     * <p>
+     * If the result has errors, the output and the hashes are incomplete and
+     * must be discarded.
+     *
+     * @param in     the UTF-8 encoded Unity document
+     * @param out    where to write the canonical form, as UTF-8
+     * @param hashes receives the hash of each production
+     * @return ValidationResult containing any errors found
+     */
+    public ValidationResult canonicalize(InputStream in, OutputStream out, Consumer<SubtreeHash> hashes)
+            throws IOException {
+        ValidationResult result = new ValidationResult();
+        try {
+            new UnityStreamParser(in, new Writer(out, hashes), result).parseDocument();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        out.flush();
+        return result;
+    }
+
+    /**
+     * Returns the hash of a Unity document's root production.
+     *
+     * @param in the UTF-8 encoded Unity document
+     * @return the SHA-256 hash of the root
+     * @throws IllegalArgumentException if the document is not valid Unity markup
+     */
+    public byte[] hash(InputStream in) throws IOException {
+        byte[][] root = new byte[1][];
+        ValidationResult result = canonicalize(in, OutputStream.nullOutputStream(), hash -> {
+            if (hash.depth() == 0) {
+                root[0] = hash.hash();
+            }
+        });
+        if (!result.isValid()) {
+            throw new IllegalArgumentException(result.toString());
+        }
+        return root[0];
+    }
+
+    /**
+     * Returns a handler that computes subtree hashes without writing any output.
+     */
+    static UnityHandler hasher(Consumer<SubtreeHash> hashes) {
+        return new Writer(OutputStream.nullOutputStream(), hashes);
+    }
+
+    /**
+     * Returns a handler that computes the head hash of every production: a
+     * SHA-256 hash of its canonical name and attributes, its text items with
+     * their positions in the array, and the position of its first content
+     * item. Unlike the subtree hash it leaves out the children, so two
+     * productions with equal head hashes differ at most in their children,
+     * and the children they share a position for are at the same index.
+     *
+     * @param heads receives each head hash with the production's ordinal
+     */
+    static UnityHandler headHasher(ObjIntConsumer<byte[]> heads) {
+        return new HeadHasher(heads);
+    }
+
+    /**
+     * Writes canonical output and feeds each production's digest as the
+     * parser reports its content.
+     */
+    private static class Writer implements UnityHandler {
+
+        private final OutputStream out;
+        private final Consumer<SubtreeHash> hashes;
+        private final StringBuilder text = new StringBuilder();
+
+        /** One digest per nesting level, reused across siblings. */
+        private final List<MessageDigest> digests = new ArrayList<>();
+
+        private int depth;
+        private int count;
+        private int[] ordinals = new int[16];
+        private String[] names = new String[16];
+        private long[] starts = new long[16];
+
+        Writer(OutputStream out, Consumer<SubtreeHash> hashes) {
+            this.out = out;
+            this.hashes = hashes;
+        }
+
+        @Override
+        public void startProduction(String name, Map<String, Object> attributes, int index, long offset) {
+            if (depth > 0) {
+                write(",", null);
+            }
+            if (depth == ordinals.length) {
+                ordinals = Arrays.copyOf(ordinals, depth * 2);
+                names = Arrays.copyOf(names, depth * 2);
+                starts = Arrays.copyOf(starts, depth * 2);
+            }
+            if (depth == digests.size()) {
+                digests.add(newDigest());
+            }
+            ordinals[depth] = count++;
+            names[depth] = name;
+            starts[depth] = offset;
+            MessageDigest digest = digests.get(depth);
+            depth++;
+
+            text.setLength(0);
+            appendHead(text, name, attributes);
+            write(text, digest);
+        }
+
+        @Override
+        public void text(Object value, int index, long offset) {
+            MessageDigest digest = digests.get(depth - 1);
+            digest.update(TEXT_ITEM);
+            text.setLength(0);
+            text.append(',');
+            appendValue(text, value);
+            write(text, digest);
+        }
+
+        @Override
+        public void endProduction(long offset) {
+            MessageDigest digest = digests.get(--depth);
+            write("]", digest);
+            byte[] hash = digest.digest();
+            if (depth > 0) {
+                MessageDigest parent = digests.get(depth - 1);
+                parent.update(CHILD_ITEM);
+                parent.update(hash);
+            }
+            hashes.accept(new SubtreeHash(ordinals[depth], depth, names[depth], starts[depth], offset, hash));
+        }
+
+        private void write(CharSequence chars, MessageDigest digest) {
+            byte[] bytes = chars.toString().getBytes(StandardCharsets.UTF_8);
+            if (digest != null) {
+                digest.update(bytes);
+            }
+            try {
+                out.write(bytes);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Feeds the head hash of each production as the parser reports its
+     * element name, attributes and text items.
+     */
+    private static class HeadHasher implements UnityHandler {
+
+        private final ObjIntConsumer<byte[]> heads;
+        private final StringBuilder text = new StringBuilder();
+
+        /** One digest per nesting level, reused across siblings. */
+        private final List<MessageDigest> digests = new ArrayList<>();
+
+        private int depth;
+        private int count;
+        private int[] ordinals = new int[16];
+
+        /** Position of the first content item of each open production, or 0 if none has been read. */
+        private int[] contentStarts = new int[16];
+
+        HeadHasher(ObjIntConsumer<byte[]> heads) {
+            this.heads = heads;
+        }
+
+        @Override
+        public void startProduction(String name, Map<String, Object> attributes, int index, long offset) {
+            if (depth > 0 && contentStarts[depth - 1] == 0) {
+                contentStarts[depth - 1] = index;
+            }
+            if (depth == ordinals.length) {
+                ordinals = Arrays.copyOf(ordinals, depth * 2);
+                contentStarts = Arrays.copyOf(contentStarts, depth * 2);
+            }
+            if (depth == digests.size()) {
+                digests.add(newDigest());
+            }
+            ordinals[depth] = count++;
+            contentStarts[depth] = 0;
+            text.setLength(0);
+            appendHead(text, name, attributes);
+            digests.get(depth).update(text.toString().getBytes(StandardCharsets.UTF_8));
+            depth++;
+        }
+
+        @Override
+        public void text(Object value, int index, long offset) {
+            if (contentStarts[depth - 1] == 0) {
+                contentStarts[depth - 1] = index;
+            }
+            MessageDigest digest = digests.get(depth - 1);
+            digest.update(TEXT_ITEM);
+            updateInt(digest, index);
+            text.setLength(0);
+            appendValue(text, value);
+            digest.update(text.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void endProduction(long offset) {
+            MessageDigest digest = digests.get(--depth);
+            updateInt(digest, contentStarts[depth]);
+            heads.accept(digest.digest(), ordinals[depth]);
+        }
+
+        private static void updateInt(MessageDigest digest, int value) {
+            digest.update((byte) (value >>> 24));
+            digest.update((byte) (value >>> 16));
+            digest.update((byte) (value >>> 8));
+            digest.update((byte) value);
+        }
+    }
+
+    /**
+     * Appends the canonical start of a production: the opening bracket, the
+     * element name and the attributes, if there are any.
+     */
+    private static void appendHead(StringBuilder sb, String name, Map<String, Object> attributes) {
+        sb.append('[');
+        appendString(sb, String.valueOf(name));
+        if (!attributes.isEmpty()) {
+            sb.append(",{");
+            boolean first = true;
+            for (Map.Entry<String, Object> attribute : new TreeMap<>(attributes).entrySet()) {
+                if (!first) {
+                    sb.append(',');
+                }
+                first = false;
+                appendString(sb, attribute.getKey());
+                sb.append(':');
+                appendValue(sb, attribute.getValue());
+            }
+            sb.append('}');
+        }
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Appends the canonical form of a primitive value.
+     */
+    static void appendValue(StringBuilder sb, Object value) {
+        if (value instanceof String) {
+            appendString(sb, (String) value);
+        } else if (value instanceof BigDecimal) {
+            sb.append(formatNumber((BigDecimal) value));
+        } else if (value == null || value == JSONObject.NULL) {
+            sb.append("null");
+        } else {
+            sb.append(value);
+        }
+    }
+
+    /**
+     * Appends a string as a canonical JSON string literal.
+     */
+    static void appendString(StringBuilder sb, String s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\b' -> sb.append("\\b");
+                case '\f' -> sb.append("\\f");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        appendEscape(sb, c);
+                    } else if (Character.isHighSurrogate(c)
+                            && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                        sb.append(c).append(s.charAt(++i));
+                    } else if (Character.isSurrogate(c)) {
+                        appendEscape(sb, c);
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+        }
+        sb.append('"');
+    }
+
+    private static void appendEscape(StringBuilder sb, char c) {
+        sb.append("\\u").append(HexFormat.of().toHexDigits(c));
+    }
+
+    /**
+     * Formats a number in canonical form: the shortest exact decimal
+     * representation, laid out like ECMAScript's {@code Number.prototype.toString}
+     * (plain notation for exponents from -7 to 20, otherwise {@code d.ddde+n}).
+     */
+    static String formatNumber(BigDecimal value) {
+        if (value.signum() == 0) {
+            return "0";
+        }
+        BigDecimal stripped = value.stripTrailingZeros();
+        String digits = stripped.unscaledValue().abs().toString();
+        int k = digits.length();
+        // value = 0.<digits> * 10^n
+        long n = (long) k - stripped.scale();
+
+        StringBuilder sb = new StringBuilder();
+        if (stripped.signum() < 0) {
+            sb.append('-');
+        }
+        if (k <= n && n <= 21) {
+            sb.append(digits);
+            sb.append("0".repeat((int) (n - k)));
+        } else if (0 < n && n <= 21) {
+            sb.append(digits, 0, (int) n).append('.').append(digits, (int) n, k);
+        } else if (-6 < n && n <= 0) {
+            sb.append("0.");
+            sb.append("0".repeat((int) -n));
+            sb.append(digits);
+        } else {
+            long exponent = n - 1;
+            sb.append(digits.charAt(0));
+            if (k > 1) {
+                sb.append('.').append(digits, 1, k);
+            }
+            sb.append('e').append(exponent < 0 ? '-' : '+').append(Math.abs(exponent));
+        }
+        return sb.toString();
+    }
+}
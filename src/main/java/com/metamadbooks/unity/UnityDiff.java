@@ -0,0 +1,667 @@
+package com.metamadbooks.unity;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static com.metamadbooks.unity.UnityTokenizer.*;
+
+/**
+ * Computes an edit script between two versions of a Unity document.
+ * <p>
+ * Both documents must have been indexed with subtree hashes (see
+ * {@link UnityIndexer#UnityIndexer(Set, boolean)}). The diff walks the two
+ * indexes from the root down and never descends into a pair of productions
+ * whose hashes are equal. Among the children of a changed production,
+ * identical children are paired by hash and the rest by element name plus the
+ * values of the key attributes (by default {@code id}). Paired children and
+ * text items that changed places are reported as moves, keeping the largest
+ * set of items that are still in order in place.
+ * <p>
+ * Only the changed productions are read from the files, and of those only the
+ * bytes outside their children. The index also holds a hash of each
+ * production's name, attributes and text items; when those are unchanged, the
+ * production is not read at all, and only the children between the identical
+ * ones at either end are compared. The cost is thus proportional to the size
+ * of the change rather than the size of the documents.
+ *
+ * <pre>{@code
+ * try (UnityIndexedReader before = new UnityIndexedReader(Path.of("v1.json"));
+ *      UnityIndexedReader after = new UnityIndexedReader(Path.of("v2.json"))) {
+ *     new UnityDiff().diff(before, after).forEach(System.out::println);
+ * }
+ * }</pre>
+ */
+public class UnityDiff {
+
+    private final Set<String> keyAttributes;
+
+    /**
+     * Creates a diff that matches productions by name and {@code id} attribute.
+     */
+    public UnityDiff() {
+        this(Set.of("id"));
+    }
+
+    /**
+     * Creates a diff that matches productions by name and the given attributes.
+     *
+     * @param keyAttributes names of the attributes that identify a production among its siblings
+     */
+    public UnityDiff(Set<String> keyAttributes) {
+        this.keyAttributes = new TreeSet<>(keyAttributes);
+    }
+
+    /**
+     * Computes the edits that turn one document into another.
+     *
+     * @param before the old version
+     * @param after  the new version
+     * @return the edit script, empty if the documents are equivalent
+     * @throws IllegalStateException if either index was built without subtree hashes
+     * @throws IOException           if either file cannot be read
+     */
+    public List<UnityEdit> diff(UnityIndexedReader before, UnityIndexedReader after) throws IOException {
+        before.index().requireHashes();
+        after.index().requireHashes();
+        try {
+            return new Run(before, after).diffRoot();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * The attributes and primitive content of a production, without its children.
+     */
+    private record Content(Map<String, Object> attributes, List<Text> texts) {
+    }
+
+    private record Text(int index, Object value) {
+    }
+
+    /**
+     * The children of two productions after pairing. The children before
+     * {@code low} and from {@code oldHigh} and {@code newHigh} on are identical
+     * and stay in place; only the children in between were paired one by one.
+     *
+     * @param newPartners the position among the old children of the partner of
+     *                    each new child from {@code low} to {@code newHigh}, or -1
+     *                    if it is unpaired
+     * @param changed     true for each of those new children that was paired by key
+     */
+    private record ChildPairs(int low, int oldHigh, int newHigh, int[] newPartners, boolean[] changed) {
+    }
+
+    /**
+     * A content item of a production: a text item, or a child if {@code text} is null.
+     *
+     * @param index    position within the production's array
+     * @param position position among the production's text items or children
+     */
+    private record Item(int index, int position, Text text) {
+    }
+
+    /**
+     * The state of a single diff between two documents.
+     */
+    private class Run {
+
+        private final UnityIndexedReader oldReader;
+        private final UnityIndexedReader newReader;
+        private final UnityIndex oldIndex;
+        private final UnityIndex newIndex;
+        private final List<UnityEdit> edits = new ArrayList<>();
+
+        Run(UnityIndexedReader oldReader, UnityIndexedReader newReader) {
+            this.oldReader = oldReader;
+            this.newReader = newReader;
+            this.oldIndex = oldReader.index();
+            this.newIndex = newReader.index();
+        }
+
+        List<UnityEdit> diffRoot() throws IOException {
+            if (!oldIndex.name(0).equals(newIndex.name(0))) {
+                edits.add(new UnityEdit(UnityEdit.Kind.DELETE, "", null, null));
+                edits.add(new UnityEdit(UnityEdit.Kind.INSERT, "", null, newReader.read(newIndex.entry(0))));
+            } else {
+                diffProduction(0, 0, "", "");
+            }
+            return edits;
+        }
+
+        /**
+         * Diffs two paired productions.
+         *
+         * @param oldPath the path of the production in the old document
+         * @param newPath the path of the production in the new document
+         */
+        private void diffProduction(int oldOrdinal, int newOrdinal, String oldPath, String newPath)
+                throws IOException {
+            if (oldIndex.sameHash(oldOrdinal, newIndex, newOrdinal)) {
+                return;
+            }
+            int[] oldChildren = oldIndex.childOrdinals(oldOrdinal);
+            int[] newChildren = newIndex.childOrdinals(newOrdinal);
+            ChildPairs pairs = pairChildren(oldChildren, newChildren);
+            if (oldIndex.sameHead(oldOrdinal, newIndex, newOrdinal) && textsInPlace(oldChildren, newChildren, pairs)) {
+                // Only the children differ, so the productions need not be read
+                diffItems(List.of(), oldChildren, List.of(), newChildren, pairs, true, oldPath, newPath);
+                return;
+            }
+            Content oldContent = readContent(oldReader, oldOrdinal, oldChildren);
+            Content newContent = readContent(newReader, newOrdinal, newChildren);
+
+            diffAttributes(oldContent.attributes(), newContent.attributes(), newPath);
+            diffItems(oldContent.texts(), oldChildren, newContent.texts(), newChildren, pairs, false,
+                    oldPath, newPath);
+        }
+
+        /**
+         * Checks whether the text items of two productions with equal head
+         * hashes are on the same side of every child that stays in place.
+         * The text items are at the same positions, and so are the children
+         * the productions have in common at the start. When the number of
+         * children differs, the identical children at the end are shifted, so
+         * the same text items must come before them and none may sit among them.
+         */
+        private boolean textsInPlace(int[] oldChildren, int[] newChildren, ChildPairs pairs) {
+            if (oldChildren.length == newChildren.length || pairs.oldHigh() == oldChildren.length) {
+                return true;
+            }
+            int oldBefore = othersBefore(oldIndex, oldChildren, pairs.oldHigh());
+            int newBefore = othersBefore(newIndex, newChildren, pairs.newHigh());
+            return oldBefore == newBefore
+                    && othersBefore(oldIndex, oldChildren, oldChildren.length - 1) == oldBefore
+                    && othersBefore(newIndex, newChildren, newChildren.length - 1) == newBefore;
+        }
+
+        private void diffAttributes(Map<String, Object> oldAttributes, Map<String, Object> newAttributes,
+                                    String path) {
+            Set<String> names = new TreeSet<>(oldAttributes.keySet());
+            names.addAll(newAttributes.keySet());
+            for (String name : names) {
+                Object oldValue = oldAttributes.get(name);
+                Object newValue = newAttributes.get(name);
+                if (oldValue == null || newValue == null || !canonical(oldValue).equals(canonical(newValue))) {
+                    edits.add(new UnityEdit(UnityEdit.Kind.ATTRIBUTE, path + "[1]." + name, oldValue, newValue));
+                }
+            }
+        }
+
+        /**
+         * Pairs the content items of two productions and reports the unpaired
+         * ones as deletes and inserts. Children are paired by
+         * {@link #pairChildren} and text items by {@link #pairTexts}. The
+         * identical children at either end stay in place; of the other paired
+         * items, those out of order relative to each other or to the children
+         * that stay are reported as moves.
+         *
+         * @param sameTexts true if the productions have the same text items at the
+         *                  same positions; these were not read, and stay in place
+         */
+        private void diffItems(List<Text> oldTexts, int[] oldChildren, List<Text> newTexts, int[] newChildren,
+                               ChildPairs pairs, boolean sameTexts, String oldPath, String newPath)
+                throws IOException {
+            int low = pairs.low();
+            int[] newChildPartners = pairs.newPartners();
+            boolean[] oldChildPaired = new boolean[pairs.oldHigh() - low];
+            for (int partner : newChildPartners) {
+                if (partner >= 0) {
+                    oldChildPaired[partner - low] = true;
+                }
+            }
+            int[] newTextPartners = pairTexts(oldTexts, newTexts);
+            boolean[] oldTextPaired = new boolean[oldTexts.size()];
+            for (int partner : newTextPartners) {
+                if (partner >= 0) {
+                    oldTextPaired[partner] = true;
+                }
+            }
+
+            for (Item item : items(oldTexts, oldChildren, low, pairs.oldHigh(), oldIndex)) {
+                boolean paired = item.text() != null ? oldTextPaired[item.position()]
+                        : oldChildPaired[item.position() - low];
+                if (!paired) {
+                    edits.add(new UnityEdit(UnityEdit.Kind.DELETE, oldPath + "[" + item.index() + "]",
+                            item.text() != null ? item.text().value() : null, null));
+                }
+            }
+
+            // Index in the old production of each new item's partner, or -1 if unpaired, and the
+            // same for the items that can stay in place without crossing an item that stays anyway
+            List<Item> newItems = items(newTexts, newChildren, low, pairs.newHigh(), newIndex);
+            int[] oldIndexes = new int[newItems.size()];
+            int[] candidates = new int[newItems.size()];
+            for (int k = 0; k < oldIndexes.length; k++) {
+                Item item = newItems.get(k);
+                boolean fits;
+                if (item.text() != null) {
+                    int partner = newTextPartners[item.position()];
+                    oldIndexes[k] = partner >= 0 ? oldTexts.get(partner).index() : -1;
+                    fits = fixedBefore(oldIndex, oldChildren, pairs.low(), pairs.oldHigh(), oldIndexes[k])
+                            == fixedBefore(newIndex, newChildren, pairs.low(), pairs.newHigh(), item.index());
+                } else {
+                    int partner = newChildPartners[item.position() - low];
+                    oldIndexes[k] = partner >= 0 ? oldIndex.index(oldChildren[partner]) : -1;
+                    fits = !sameTexts || partner >= 0 && othersBefore(oldIndex, oldChildren, partner)
+                            == othersBefore(newIndex, newChildren, item.position());
+                }
+                candidates[k] = fits ? oldIndexes[k] : -1;
+            }
+            boolean[] inOrder = longestIncreasing(candidates);
+
+            for (int k = 0; k < oldIndexes.length; k++) {
+                Item item = newItems.get(k);
+                String itemPath = newPath + "[" + item.index() + "]";
+                String oldItemPath = oldPath + "[" + oldIndexes[k] + "]";
+                if (oldIndexes[k] < 0) {
+                    Object value = item.text() != null ? item.text().value()
+                            : newReader.read(newIndex.entry(newChildren[item.position()]));
+                    edits.add(new UnityEdit(UnityEdit.Kind.INSERT, itemPath, null, value));
+                    continue;
+                }
+                if (!inOrder[k]) {
+                    edits.add(new UnityEdit(UnityEdit.Kind.MOVE, itemPath, oldItemPath, null));
+                }
+                if (item.text() != null) {
+                    Object oldValue = oldTexts.get(newTextPartners[item.position()]).value();
+                    if (!canonical(oldValue).equals(canonical(item.text().value()))) {
+                        edits.add(new UnityEdit(UnityEdit.Kind.TEXT, itemPath, oldValue, item.text().value()));
+                    }
+                } else if (pairs.changed()[item.position() - low]) {
+                    int j = item.position();
+                    diffProduction(oldChildren[newChildPartners[j - low]], newChildren[j], oldItemPath, itemPath);
+                }
+            }
+        }
+
+        /**
+         * Pairs the children of two productions. Identical children are paired
+         * by hash, first in the common prefix and suffix and then wherever they
+         * have moved to; the remaining children are paired by name and key
+         * attributes and marked as changed.
+         */
+        private ChildPairs pairChildren(int[] oldChildren, int[] newChildren) {
+            // Skip the common prefix and suffix of identical children
+            int low = 0;
+            while (low < oldChildren.length && low < newChildren.length
+                    && oldIndex.sameHash(oldChildren[low], newIndex, newChildren[low])) {
+                low++;
+            }
+            int oldHigh = oldChildren.length;
+            int newHigh = newChildren.length;
+            while (oldHigh > low && newHigh > low
+                    && oldIndex.sameHash(oldChildren[oldHigh - 1], newIndex, newChildren[newHigh - 1])) {
+                oldHigh--;
+                newHigh--;
+            }
+            int[] newPartners = new int[newHigh - low];
+            boolean[] changed = new boolean[newHigh - low];
+            Arrays.fill(newPartners, -1);
+
+            // Pair identical children that have moved
+            boolean[] oldPaired = new boolean[oldHigh - low];
+            Map<ByteBuffer, ArrayDeque<Integer>> byHash = new HashMap<>();
+            for (int i = low; i < oldHigh; i++) {
+                byHash.computeIfAbsent(oldIndex.hashKey(oldChildren[i]), h -> new ArrayDeque<>()).add(i);
+            }
+            for (int j = low; j < newHigh; j++) {
+                ArrayDeque<Integer> candidates = byHash.get(newIndex.hashKey(newChildren[j]));
+                if (candidates != null && !candidates.isEmpty()) {
+                    int i = candidates.poll();
+                    oldPaired[i - low] = true;
+                    newPartners[j - low] = i;
+                }
+            }
+
+            // Pair changed children by name and key attributes
+            Map<String, ArrayDeque<Integer>> byKey = new HashMap<>();
+            for (int i = low; i < oldHigh; i++) {
+                if (!oldPaired[i - low]) {
+                    byKey.computeIfAbsent(key(oldReader, oldChildren[i]), k -> new ArrayDeque<>()).add(i);
+                }
+            }
+            for (int j = low; j < newHigh && !byKey.isEmpty(); j++) {
+                if (newPartners[j - low] < 0) {
+                    ArrayDeque<Integer> candidates = byKey.get(key(newReader, newChildren[j]));
+                    if (candidates != null && !candidates.isEmpty()) {
+                        newPartners[j - low] = candidates.poll();
+                        changed[j - low] = true;
+                    }
+                }
+            }
+            return new ChildPairs(low, oldHigh, newHigh, newPartners, changed);
+        }
+
+        /**
+         * Pairs the text items of two productions. Items with equal canonical
+         * values are paired first, in the common prefix and suffix and then
+         * in order; the remaining items are paired by their order among the
+         * remaining items, and are reported as changed if their values differ.
+         *
+         * @return the position in {@code oldTexts} of each new text item's
+         *         partner, or -1 if it is unpaired
+         */
+        private int[] pairTexts(List<Text> oldTexts, List<Text> newTexts) {
+            int[] newPartners = new int[newTexts.size()];
+            Arrays.fill(newPartners, -1);
+            boolean[] oldPaired = new boolean[oldTexts.size()];
+
+            // Pair the common prefix and suffix of equal items, so that a changed
+            // item is not paired with an equal one elsewhere
+            int low = 0;
+            while (low < oldTexts.size() && low < newTexts.size()
+                    && canonical(oldTexts.get(low).value()).equals(canonical(newTexts.get(low).value()))) {
+                oldPaired[low] = true;
+                newPartners[low] = low;
+                low++;
+            }
+            int oldHigh = oldTexts.size();
+            int newHigh = newTexts.size();
+            while (oldHigh > low && newHigh > low && canonical(oldTexts.get(oldHigh - 1).value())
+                    .equals(canonical(newTexts.get(newHigh - 1).value()))) {
+                oldPaired[--oldHigh] = true;
+                newPartners[--newHigh] = oldHigh;
+            }
+
+            Map<String, ArrayDeque<Integer>> byValue = new HashMap<>();
+            for (int i = low; i < oldHigh; i++) {
+                byValue.computeIfAbsent(canonical(oldTexts.get(i).value()), v -> new ArrayDeque<>()).add(i);
+            }
+            for (int j = low; j < newHigh; j++) {
+                ArrayDeque<Integer> candidates = byValue.get(canonical(newTexts.get(j).value()));
+                if (candidates != null && !candidates.isEmpty()) {
+                    int i = candidates.poll();
+                    oldPaired[i] = true;
+                    newPartners[j] = i;
+                }
+            }
+
+            int i = 0;
+            for (int j = 0; j < newTexts.size(); j++) {
+                if (newPartners[j] >= 0) {
+                    continue;
+                }
+                while (i < oldTexts.size() && oldPaired[i]) {
+                    i++;
+                }
+                if (i == oldTexts.size()) {
+                    break;
+                }
+                oldPaired[i] = true;
+                newPartners[j] = i;
+            }
+            return newPartners;
+        }
+
+        /**
+         * Returns the string that identifies a production among its siblings:
+         * its name and the canonical values of the key attributes.
+         */
+        private String key(UnityIndexedReader reader, int ordinal) {
+            StringBuilder key = new StringBuilder(reader.index().name(ordinal));
+            if (keyAttributes.isEmpty()) {
+                return key.toString();
+            }
+            Map<String, Object> attributes = readHead(reader, ordinal);
+            for (String name : keyAttributes) {
+                key.append('\u0000');
+                Object value = attributes.get(name);
+                if (value != null) {
+                    UnityCanonicalizer.appendValue(key, value);
+                }
+            }
+            return key.toString();
+        }
+    }
+
+    /**
+     * Returns the text items and the children from {@code from} to {@code to}
+     * of a production in content order. Each item records its position in
+     * {@code texts} or {@code children}.
+     */
+    private static List<Item> items(List<Text> texts, int[] children, int from, int to, UnityIndex index) {
+        List<Item> items = new ArrayList<>(texts.size() + to - from);
+        int t = 0;
+        int c = from;
+        while (t < texts.size() || c < to) {
+            int childIndex = c < to ? index.index(children[c]) : Integer.MAX_VALUE;
+            if (t < texts.size() && texts.get(t).index() < childIndex) {
+                items.add(new Item(texts.get(t).index(), t, texts.get(t++)));
+            } else {
+                items.add(new Item(childIndex, c++, null));
+            }
+        }
+        return items;
+    }
+
+    /**
+     * Returns how many items before a production's kth child are not
+     * children: its element name, its attributes and its text items.
+     */
+    private static int othersBefore(UnityIndex index, int[] children, int k) {
+        return index.index(children[k]) - k;
+    }
+
+    /**
+     * Returns how many of the children that stay in place, those before
+     * {@code low} and from {@code high} on, come before the given position in
+     * a production's array.
+     */
+    private static int fixedBefore(UnityIndex index, int[] children, int low, int high, int position) {
+        int lo = 0;
+        int hi = children.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (index.index(children[mid]) < position) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return Math.min(lo, low) + Math.max(0, lo - high);
+    }
+
+    /**
+     * Marks a longest strictly increasing subsequence of the non-negative
+     * values. Negative values are ignored and never marked.
+     */
+    private static boolean[] longestIncreasing(int[] values) {
+        // tails[l] is the position of the smallest value ending an increasing run of length l + 1
+        int[] tails = new int[values.length];
+        int[] previous = new int[values.length];
+        int length = 0;
+        for (int k = 0; k < values.length; k++) {
+            if (values[k] < 0) {
+                continue;
+            }
+            int lo = 0;
+            int hi = length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (values[tails[mid]] < values[k]) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            previous[k] = lo > 0 ? tails[lo - 1] : -1;
+            tails[lo] = k;
+            if (lo == length) {
+                length++;
+            }
+        }
+        boolean[] marked = new boolean[values.length];
+        for (int k = length > 0 ? tails[length - 1] : -1; k >= 0; k = previous[k]) {
+            marked[k] = true;
+        }
+        return marked;
+    }
+
+    private static String canonical(Object value) {
+        StringBuilder sb = new StringBuilder();
+        UnityCanonicalizer.appendValue(sb, value);
+        return sb.toString();
+    }
+
+    /**
+     * Reads the attributes and text items of a production. Its children are
+     * not read: only the bytes before the first child and after the last one,
+     * and the gaps between children that hold text items, which the positions
+     * of the children in the index give away.
+     *
+     * @param children the ordinals of the production's children
+     */
+    private static Content readContent(UnityIndexedReader reader, int ordinal, int[] children) {
+        UnityIndex index = reader.index();
+        long start = index.start(ordinal);
+        long end = index.end(ordinal);
+
+        // Byte ranges to read, with the positions of the text items each one holds
+        int count = children.length;
+        long[] from = new long[count + 1];
+        long[] to = new long[count + 1];
+        int[] firstIndexes = new int[count + 1];
+        int[] endIndexes = new int[count + 1];
+        from[0] = start;
+        to[0] = count > 0 ? index.start(children[0]) : end;
+        endIndexes[0] = count > 0 ? index.index(children[0]) : Integer.MAX_VALUE;
+        int regions = 1;
+        for (int c = 1; c <= count; c++) {
+            int first = index.index(children[c - 1]) + 1;
+            int last = c < count ? index.index(children[c]) : Integer.MAX_VALUE;
+            if (last > first) {
+                from[regions] = index.end(children[c - 1]);
+                to[regions] = c < count ? index.start(children[c]) : end;
+                firstIndexes[regions] = first;
+                endIndexes[regions++] = last;
+            }
+        }
+
+        UnityTokenizer tokenizer = new UnityTokenizer(new Regions(reader.open(start, end), start, from, to, regions),
+                start);
+        Map<String, Object> attributes = new LinkedHashMap<>();
+        tokenizer.next(); // '['
+        tokenizer.next(); // element name
+        int token = tokenizer.next();
+        if (token == COMMA) {
+            token = tokenizer.next();
+        }
+        firstIndexes[0] = 1;
+        if (token == BEGIN_OBJECT) {
+            readAttributes(tokenizer, attributes);
+            firstIndexes[0] = 2;
+            token = tokenizer.next();
+        }
+
+        // The children are left out, so only their separators remain between the text items
+        List<Text> texts = new ArrayList<>();
+        int region = 0;
+        int textIndex = firstIndexes[0];
+        for (; token != END_ARRAY && token != EOF; token = tokenizer.next()) {
+            if (token == COMMA) {
+                continue;
+            }
+            while (textIndex >= endIndexes[region]) {
+                textIndex = firstIndexes[++region];
+            }
+            texts.add(new Text(textIndex++, tokenizer.primitiveValue(token)));
+        }
+        return new Content(attributes, texts);
+    }
+
+    /**
+     * Reads the attributes of a production from the bytes before its first child.
+     */
+    private static Map<String, Object> readHead(UnityIndexedReader reader, int ordinal) {
+        UnityIndex index = reader.index();
+        long start = index.start(ordinal);
+        long end = index.entry(ordinal).descendants() > 0 ? index.start(ordinal + 1) : index.end(ordinal);
+        UnityTokenizer tokenizer = new UnityTokenizer(reader.open(start, end), start);
+        Map<String, Object> attributes = new LinkedHashMap<>();
+        tokenizer.next(); // '['
+        tokenizer.next(); // element name
+        if (tokenizer.next() == COMMA && tokenizer.next() == BEGIN_OBJECT) {
+            readAttributes(tokenizer, attributes);
+        }
+        return attributes;
+    }
+
+    private static void readAttributes(UnityTokenizer tokenizer, Map<String, Object> attributes) {
+        int token = tokenizer.next();
+        while (token == STRING) {
+            String name = tokenizer.text();
+            tokenizer.next(); // ':'
+            attributes.put(name, tokenizer.primitiveValue(tokenizer.next()));
+            if (!tokenizer.expectSeparator(COMMA, END_OBJECT)) {
+                return;
+            }
+            token = tokenizer.next();
+        }
+    }
+
+    /**
+     * Reads selected byte ranges of a stream back to back, skipping the bytes
+     * in between without reading them.
+     */
+    private static class Regions extends InputStream {
+
+        private final InputStream in;
+        private final long[] starts;
+        private final long[] ends;
+        private final int count;
+        private int region;
+        private long position;
+
+        /**
+         * @param in       the stream to read from
+         * @param position the offset of the stream's first byte
+         * @param starts   the start offset of each range, in ascending order
+         * @param ends     the offset just past each range
+         * @param count    the number of ranges
+         */
+        Regions(InputStream in, long position, long[] starts, long[] ends, int count) {
+            this.in = in;
+            this.position = position;
+            this.starts = starts;
+            this.ends = ends;
+            this.count = count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            while (region < count && position >= ends[region]) {
+                region++;
+            }
+            if (region == count) {
+                return -1;
+            }
+            if (position < starts[region]) {
+                in.skipNBytes(starts[region] - position);
+                position = starts[region];
+            }
+            int n = in.read(b, off, (int) Math.min(len, ends[region] - position));
+            if (n > 0) {
+                position += n;
+            }
+            return n;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.metamadbooks.unity;
+
+/**
+ * A single change between two versions of a Unity document, as produced by
+ * {@link UnityDiff}.
+ * <p>
+ * Paths use the same syntax as {@link ValidationError}: {@code "[1][2]"} for
+ * a content item and {@code "[1][1].id"} for an attribute. A {@link Kind#DELETE}
+ * is addressed by its path in the old document; every other edit by its path
+ * in the new document.
+ *
+ * @param kind   what changed
+ * @param path   where it changed
+ * @param before the old attribute or text value, the deleted text value, or for a
+ *               {@link Kind#MOVE} the item's path in the old document; otherwise null
+ * @param after  the new value: the inserted production as a {@code JSONArray}, or the
+ *               inserted text or new attribute or text value; otherwise null
+ */
+public record UnityEdit(Kind kind, String path, Object before, Object after) {
+
+    /**
+     * The kinds of change in an edit script.
+     */
+    public enum Kind {
+        /** A production or text item was inserted. */
+        INSERT,
+        /** A production or text item was deleted. */
+        DELETE,
+        /** A production or text item was moved relative to its siblings. */
+        MOVE,
+        /** An attribute was added, removed or changed. */
+        ATTRIBUTE,
+        /** A text item was changed. */
+        TEXT
+    }
+
+    @Override
+    public String toString() {
+        return switch (kind) {
+            case INSERT -> kind + " " + path + ": " + after;
+            case DELETE -> before == null ? kind + " " + path : kind + " " + path + ": " + before;
+            case MOVE -> kind + " " + before + " -> " + path;
+            default -> kind + " " + path + ": " + before + " -> " + after;
+        };
+    }
+}
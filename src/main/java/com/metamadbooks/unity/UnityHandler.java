@@ -0,0 +1,69 @@
+package com.metamadbooks.unity;
+
+import java.util.Map;
+
+/**
+ * Receives the productions and content of a Unity document as
+ * {@link UnityStreamParser} reads it.
+ * <p>
+ * Primitive values are passed as {@code String}, {@code BigDecimal},
+ * {@code Boolean} or {@link org.json.JSONObject#NULL}. Events are only
+ * meaningful for documents that turn out to be valid; handlers that produce
+ * output should check the {@link ValidationResult} once parsing is done.
+ */
+interface UnityHandler {
+
+    /**
+     * Called once the element name and attributes of a production have been read.
+     *
+     * @param name       the element name, or null if index 0 is not a string
+     * @param attributes the attributes in document order, empty if there are none
+     * @param index      the position of the production within its parent array (0 for the root)
+     * @param offset     the byte offset of the production's opening bracket
+     */
+    default void startProduction(String name, Map<String, Object> attributes, int index, long offset) {
+    }
+
+    /**
+     * Called for each primitive content item.
+     *
+     * @param value  the primitive value
+     * @param index  the position of the item within its parent array
+     * @param offset the byte offset of the value
+     */
+    default void text(Object value, int index, long offset) {
+    }
+
+    /**
+     * Called after the closing bracket of a production.
+     *
+     * @param offset the byte offset just past the closing bracket
+     */
+    default void endProduction(long offset) {
+    }
+
+    /**
+     * Returns a handler that passes every event to both handlers, in order.
+     */
+    static UnityHandler both(UnityHandler first, UnityHandler second) {
+        return new UnityHandler() {
+            @Override
+            public void startProduction(String name, Map<String, Object> attributes, int index, long offset) {
+                first.startProduction(name, attributes, index, offset);
+                second.startProduction(name, attributes, index, offset);
+            }
+
+            @Override
+            public void text(Object value, int index, long offset) {
+                first.text(value, index, offset);
+                second.text(value, index, offset);
+            }
+
+            @Override
+            public void endProduction(long offset) {
+                first.endProduction(offset);
+                second.endProduction(offset);
+            }
+        };
+    }
+}
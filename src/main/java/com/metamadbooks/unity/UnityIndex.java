@@ -0,0 +1,576 @@
+package com.metamadbooks.unity;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * A sidecar index of the productions in a Unity file.
+ * <p>
+ * Productions are numbered in document order (the root is ordinal 0) and the
+ * index records the byte range, depth, element name and position within the
+ * parent array of each one. Optionally, the values of selected attributes and
+ * the subtree and head hashes of each production (see {@link UnityCanonicalizer})
+ * are indexed as well. Indexes are built by {@link UnityIndexer} and used by
+ * {@link UnityIndexedReader} to parse single subtrees without reading the
+ * rest of the file.
+ * <p>
+ * The sidecar is a small binary file: offsets are delta-encoded and all
+ * integers are written as variable-length quantities. It also records the
+ * length, modification time and CRC-32C checksum of the source file, and when
+ * the file was last read in full, so that {@link UnityIndexedReader} can tell
+ * when the file has changed.
+ * <p>
+ * Reading a sidecar decodes the whole index into memory: about 50 bytes per
+ * production, plus about 100 bytes per distinct indexed attribute value and,
+ * with subtree hashes, 64 bytes per production.
+ */
+public final class UnityIndex {
+
+    /** File name suffix of the default sidecar location. */
+    public static final String SIDECAR_SUFFIX = ".uidx";
+
+    private static final int MAGIC = 0x55494458; // "UIDX"
+    private static final int VERSION = 1;
+
+    /** Length of a subtree hash in bytes. */
+    static final int HASH_LENGTH = 32;
+
+    private static final int FLAG_HASHES = 0x01;
+
+    /** Offset of the source's modification time in the sidecar, followed by the time it was checked. */
+    private static final int SOURCE_TIMES_OFFSET = 6;
+
+    /**
+     * A production in the indexed file.
+     *
+     * @param ordinal     position of the production in document order
+     * @param name        the element name
+     * @param depth       nesting depth (0 for the root)
+     * @param index       position within the parent array (0 for the root)
+     * @param start       byte offset of the opening bracket
+     * @param end         byte offset just past the closing bracket
+     * @param descendants number of productions nested anywhere inside this one
+     */
+    public record Entry(int ordinal, String name, int depth, int index, long start, long end, int descendants) {
+
+        /** Returns the length of the production in bytes. */
+        public long length() {
+            return end - start;
+        }
+    }
+
+    private final long sourceLength;
+    private final long sourceModified;
+    private final long sourceChecked;
+    private final int sourceChecksum;
+    private final String[] names;
+    private final int[] nameIds;
+    private final int[] depths;
+    private final int[] indexes;
+    private final long[] starts;
+    private final long[] ends;
+    private final int[] descendants;
+    private final Map<String, Map<String, int[]>> attributeValues;
+
+    /** Subtree hashes, {@link #HASH_LENGTH} bytes per production, or null if not indexed. */
+    private final byte[] hashes;
+
+    /** Head hashes, indexed along with the subtree hashes. */
+    private final byte[] heads;
+
+    /** Ordinals of each element name, indexed by name id. */
+    private final int[][] byName;
+    private final Map<String, Integer> nameIdsByName = new HashMap<>();
+
+    UnityIndex(long sourceLength, long sourceModified, long sourceChecked, int sourceChecksum, String[] names,
+               int[] nameIds, int[] depths, int[] indexes, long[] starts, long[] ends, int[] descendants,
+               Map<String, Map<String, int[]>> attributeValues, byte[] hashes, byte[] heads) {
+        this.sourceLength = sourceLength;
+        this.sourceModified = sourceModified;
+        this.sourceChecked = sourceChecked;
+        this.sourceChecksum = sourceChecksum;
+        this.names = names;
+        this.nameIds = nameIds;
+        this.depths = depths;
+        this.indexes = indexes;
+        this.starts = starts;
+        this.ends = ends;
+        this.descendants = descendants;
+        this.attributeValues = attributeValues;
+        this.hashes = hashes;
+        this.heads = heads;
+
+        for (int i = 0; i < names.length; i++) {
+            nameIdsByName.put(names[i], i);
+        }
+        int[] counts = new int[names.length];
+        for (int nameId : nameIds) {
+            counts[nameId]++;
+        }
+        byName = new int[names.length][];
+        for (int i = 0; i < names.length; i++) {
+            byName[i] = new int[counts[i]];
+        }
+        Arrays.fill(counts, 0);
+        for (int ordinal = 0; ordinal < nameIds.length; ordinal++) {
+            int nameId = nameIds[ordinal];
+            byName[nameId][counts[nameId]++] = ordinal;
+        }
+    }
+
+    /**
+     * Returns the default sidecar location for a Unity file: the same path with
+     * {@value #SIDECAR_SUFFIX} appended.
+     */
+    public static Path sidecarFor(Path source) {
+        return source.resolveSibling(source.getFileName() + SIDECAR_SUFFIX);
+    }
+
+    /** Returns the size in bytes of the file this index was built from. */
+    public long sourceLength() {
+        return sourceLength;
+    }
+
+    /** Returns the modification time in milliseconds of the file this index was built from. */
+    long sourceModified() {
+        return sourceModified;
+    }
+
+    /**
+     * Returns the time in milliseconds at which the file was last read in
+     * full, to index it or to verify its checksum. Reading started at this
+     * time, after its modification time had been taken.
+     */
+    long sourceChecked() {
+        return sourceChecked;
+    }
+
+    /** Returns the CRC-32C checksum of the file this index was built from. */
+    int sourceChecksum() {
+        return sourceChecksum;
+    }
+
+    /** Returns the number of productions in the file. */
+    public int size() {
+        return starts.length;
+    }
+
+    /** Returns the names of the attributes whose values are indexed. */
+    public Set<String> indexedAttributes() {
+        return Collections.unmodifiableSet(attributeValues.keySet());
+    }
+
+    /** Returns true if the index holds the subtree hash of every production. */
+    public boolean hasHashes() {
+        return hashes != null;
+    }
+
+    /**
+     * Returns the subtree hash of the production with the given ordinal, as
+     * computed by {@link UnityCanonicalizer}.
+     *
+     * @throws IllegalStateException if the index was built without hashes
+     */
+    public byte[] hash(int ordinal) {
+        requireHashes();
+        int offset = ordinal * HASH_LENGTH;
+        return Arrays.copyOfRange(hashes, offset, offset + HASH_LENGTH);
+    }
+
+    /**
+     * Checks whether two productions, possibly from different indexes, have
+     * the same subtree hash.
+     */
+    boolean sameHash(int ordinal, UnityIndex other, int otherOrdinal) {
+        int offset = ordinal * HASH_LENGTH;
+        int otherOffset = otherOrdinal * HASH_LENGTH;
+        return Arrays.equals(hashes, offset, offset + HASH_LENGTH,
+                other.hashes, otherOffset, otherOffset + HASH_LENGTH);
+    }
+
+    /**
+     * Checks whether two productions, possibly from different indexes, have
+     * the same head hash: the same element name, attributes and text items,
+     * at the same positions (see {@link UnityCanonicalizer#headHasher}).
+     */
+    boolean sameHead(int ordinal, UnityIndex other, int otherOrdinal) {
+        int offset = ordinal * HASH_LENGTH;
+        int otherOffset = otherOrdinal * HASH_LENGTH;
+        return Arrays.equals(heads, offset, offset + HASH_LENGTH,
+                other.heads, otherOffset, otherOffset + HASH_LENGTH);
+    }
+
+    /**
+     * Returns a view of a production's subtree hash that can be used as a map key.
+     */
+    ByteBuffer hashKey(int ordinal) {
+        return ByteBuffer.wrap(hashes, ordinal * HASH_LENGTH, HASH_LENGTH).slice();
+    }
+
+    void requireHashes() {
+        if (hashes == null) {
+            throw new IllegalStateException("Index was built without subtree hashes");
+        }
+    }
+
+    /**
+     * Returns the production with the given ordinal.
+     *
+     * @throws IndexOutOfBoundsException if there is no such production
+     */
+    public Entry entry(int ordinal) {
+        return new Entry(ordinal, names[nameIds[ordinal]], depths[ordinal], indexes[ordinal],
+                starts[ordinal], ends[ordinal], descendants[ordinal]);
+    }
+
+    /**
+     * Returns the nth production (counting from 0 in document order) with the
+     * given element name, at any depth.
+     */
+    public Optional<Entry> find(String name, int n) {
+        int[] ordinals = ordinalsOf(name);
+        if (n < 0 || n >= ordinals.length) {
+            return Optional.empty();
+        }
+        return Optional.of(entry(ordinals[n]));
+    }
+
+    /**
+     * Returns the nth production (counting from 0 in document order) with the
+     * given element name at the given depth.
+     */
+    public Optional<Entry> find(int depth, String name, int n) {
+        if (n < 0) {
+            return Optional.empty();
+        }
+        int seen = 0;
+        for (int ordinal : ordinalsOf(name)) {
+            if (depths[ordinal] == depth && seen++ == n) {
+                return Optional.of(entry(ordinal));
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Returns the productions directly nested in the given production, in document order.
+     */
+    public List<Entry> children(int ordinal) {
+        int[] ordinals = childOrdinals(ordinal);
+        List<Entry> entries = new ArrayList<>(ordinals.length);
+        for (int child : ordinals) {
+            entries.add(entry(child));
+        }
+        return entries;
+    }
+
+    /**
+     * Returns the ordinals of the productions directly nested in the given
+     * production. Each child's descendants are skipped without being visited.
+     */
+    int[] childOrdinals(int ordinal) {
+        int last = ordinal + descendants[ordinal];
+        int count = 0;
+        for (int child = ordinal + 1; child <= last; child += descendants[child] + 1) {
+            count++;
+        }
+        int[] children = new int[count];
+        count = 0;
+        for (int child = ordinal + 1; child <= last; child += descendants[child] + 1) {
+            children[count++] = child;
+        }
+        return children;
+    }
+
+    /** Returns the element name of the production with the given ordinal. */
+    String name(int ordinal) {
+        return names[nameIds[ordinal]];
+    }
+
+    /** Returns the position of the production with the given ordinal within its parent array. */
+    int index(int ordinal) {
+        return indexes[ordinal];
+    }
+
+    /** Returns the byte offset of the opening bracket of the production with the given ordinal. */
+    long start(int ordinal) {
+        return starts[ordinal];
+    }
+
+    /** Returns the byte offset just past the closing bracket of the production with the given ordinal. */
+    long end(int ordinal) {
+        return ends[ordinal];
+    }
+
+    /**
+     * Returns all productions with the given element name, in document order.
+     */
+    public List<Entry> findAll(String name) {
+        int[] ordinals = ordinalsOf(name);
+        List<Entry> entries = new ArrayList<>(ordinals.length);
+        for (int ordinal : ordinals) {
+            entries.add(entry(ordinal));
+        }
+        return entries;
+    }
+
+    /**
+     * Returns the productions whose attribute has the given value, in document
+     * order. Strings are matched as they are; numbers, booleans and null by
+     * their canonical form (see {@link UnityCanonicalizer}), e.g. "42", "1000"
+     * for {@code 1e3}, "0.5" for {@code 5E-1} or "true".
+     *
+     * @throws IllegalArgumentException if the attribute was not indexed
+     */
+    public List<Entry> findByAttribute(String attribute, String value) {
+        Map<String, int[]> values = attributeValues.get(attribute);
+        if (values == null) {
+            throw new IllegalArgumentException("Attribute is not indexed: \"" + attribute + "\"");
+        }
+        int[] ordinals = values.getOrDefault(value, new int[0]);
+        List<Entry> entries = new ArrayList<>(ordinals.length);
+        for (int ordinal : ordinals) {
+            entries.add(entry(ordinal));
+        }
+        return entries;
+    }
+
+    private int[] ordinalsOf(String name) {
+        Integer nameId = nameIdsByName.get(name);
+        return nameId == null ? new int[0] : byName[nameId];
+    }
+
+    /**
+     * Writes the index to a sidecar file, replacing any existing file.
+     */
+    public void write(Path sidecar) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(sidecar))) {
+            write(out);
+        }
+    }
+
+    /**
+     * Writes the index to a stream.
+     */
+    public void write(OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeByte(hashes != null ? FLAG_HASHES : 0);
+        out.writeLong(sourceModified);
+        out.writeLong(sourceChecked);
+        out.writeInt(sourceChecksum);
+        writeVarLong(out, sourceLength);
+
+        writeVarLong(out, names.length);
+        for (String name : names) {
+            writeString(out, name);
+        }
+
+        writeVarLong(out, starts.length);
+        long previousStart = 0;
+        for (int i = 0; i < starts.length; i++) {
+            writeVarLong(out, starts[i] - previousStart);
+            writeVarLong(out, ends[i] - starts[i]);
+            writeVarLong(out, nameIds[i]);
+            writeVarLong(out, depths[i]);
+            writeVarLong(out, indexes[i]);
+            writeVarLong(out, descendants[i]);
+            previousStart = starts[i];
+        }
+        if (hashes != null) {
+            out.write(hashes);
+            out.write(heads);
+        }
+
+        writeVarLong(out, attributeValues.size());
+        for (Map.Entry<String, Map<String, int[]>> attribute : attributeValues.entrySet()) {
+            writeString(out, attribute.getKey());
+            writeVarLong(out, attribute.getValue().size());
+            for (Map.Entry<String, int[]> value : attribute.getValue().entrySet()) {
+                writeString(out, value.getKey());
+                int[] ordinals = value.getValue();
+                writeVarLong(out, ordinals.length);
+                int previous = 0;
+                for (int ordinal : ordinals) {
+                    writeVarLong(out, ordinal - previous);
+                    previous = ordinal;
+                }
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Reads an index from a sidecar file.
+     *
+     * @throws IOException if the file cannot be read or is not a Unity index
+     */
+    public static UnityIndex read(Path sidecar) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(sidecar))) {
+            return read(in);
+        }
+    }
+
+    /**
+     * Reads an index from a stream.
+     *
+     * @throws IOException if the stream cannot be read or is not a Unity index
+     */
+    public static UnityIndex read(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a Unity index");
+        }
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported Unity index version " + version);
+        }
+        int flags = in.readUnsignedByte();
+        long sourceModified = in.readLong();
+        long sourceChecked = in.readLong();
+        int sourceChecksum = in.readInt();
+        long sourceLength = readVarLong(in);
+
+        String[] names = new String[readCount(in)];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = readString(in);
+        }
+
+        int count = readCount(in);
+        long[] starts = new long[count];
+        long[] ends = new long[count];
+        int[] nameIds = new int[count];
+        int[] depths = new int[count];
+        int[] indexes = new int[count];
+        int[] descendants = new int[count];
+        long previousStart = 0;
+        for (int i = 0; i < count; i++) {
+            starts[i] = previousStart + readVarLong(in);
+            ends[i] = starts[i] + readVarLong(in);
+            nameIds[i] = readCount(in);
+            depths[i] = readCount(in);
+            indexes[i] = readCount(in);
+            descendants[i] = readCount(in);
+            previousStart = starts[i];
+            if (nameIds[i] >= names.length) {
+                throw new IOException("Corrupt Unity index: name id " + nameIds[i] + " out of range");
+            }
+        }
+        byte[] hashes = null;
+        byte[] heads = null;
+        if ((flags & FLAG_HASHES) != 0) {
+            hashes = new byte[Math.multiplyExact(count, HASH_LENGTH)];
+            in.readFully(hashes);
+            heads = new byte[hashes.length];
+            in.readFully(heads);
+        }
+
+        int attributeCount = readCount(in);
+        Map<String, Map<String, int[]>> attributeValues = new LinkedHashMap<>();
+        for (int i = 0; i < attributeCount; i++) {
+            String attribute = readString(in);
+            int valueCount = readCount(in);
+            Map<String, int[]> values = new HashMap<>();
+            for (int j = 0; j < valueCount; j++) {
+                String value = readString(in);
+                int[] ordinals = new int[readCount(in)];
+                int previous = 0;
+                for (int k = 0; k < ordinals.length; k++) {
+                    ordinals[k] = previous + readCount(in);
+                    previous = ordinals[k];
+                }
+                values.put(value, ordinals);
+            }
+            attributeValues.put(attribute, values);
+        }
+
+        return new UnityIndex(sourceLength, sourceModified, sourceChecked, sourceChecksum, names, nameIds, depths,
+                indexes, starts, ends, descendants, attributeValues, hashes, heads);
+    }
+
+    /**
+     * Records in a sidecar file that its source, with the given modification
+     * time, was checked against this index at the given time. Only the two
+     * times are rewritten, and nothing is written unless the sidecar still
+     * holds an index of the same source contents.
+     */
+    void writeSourceTimes(Path sidecar, long modified, long checked) throws IOException {
+        try (FileChannel channel = FileChannel.open(sidecar, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // Unbuffered, so that nothing is read past the header
+            DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+            if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) {
+                return;
+            }
+            in.skipNBytes(1 + 2 * Long.BYTES);
+            if (in.readInt() != sourceChecksum || readVarLong(in) != sourceLength) {
+                return;
+            }
+            ByteBuffer times = ByteBuffer.allocate(2 * Long.BYTES).putLong(modified).putLong(checked).flip();
+            while (times.hasRemaining()) {
+                channel.write(times, SOURCE_TIMES_OFFSET + times.position());
+            }
+        }
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Corrupt Unity index: variable-length integer too long");
+    }
+
+    private static int readCount(DataInputStream in) throws IOException {
+        long value = readVarLong(in);
+        if (value > Integer.MAX_VALUE) {
+            throw new IOException("Corrupt Unity index: count " + value + " out of range");
+        }
+        return (int) value;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[readCount(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,223 @@
+package com.metamadbooks.unity;
+
+import org.json.JSONArray;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.zip.CRC32C;
+
+/**
+ * Reads single productions out of a large Unity file using its
+ * {@link UnityIndex}.
+ * <p>
+ * Each lookup memory-maps just the byte range of the requested production and
+ * parses only that subtree, so the cost of a lookup is proportional to the
+ * size of the production rather than the size of the file. The file must
+ * have been indexed with {@link UnityIndexer} and must not have changed since.
+ * <p>
+ * Opening a reader checks that the file still has the indexed length. Its
+ * modification time is trusted only if it equals the indexed one and is
+ * clearly older than the time the file was last read in full; a later write
+ * within the file system's timestamp granularity could otherwise leave the
+ * time unchanged. If it is not trusted, the whole file is read once to
+ * compare its checksum, so a file that was only touched can still be used.
+ * When the checksum matches, the new times are written back to the sidecar,
+ * so that the next reader can trust them.
+ */
+public class UnityIndexedReader implements Closeable {
+
+    /** Largest region mapped at once when streaming through a production. */
+    private static final long WINDOW_SIZE = 1L << 26;
+
+    /**
+     * How much older than the last full read a file's modification time must
+     * be to be trusted. Covers coarse file system timestamps, such as FAT's
+     * two seconds.
+     */
+    private static final long RACY_MILLIS = 2000;
+
+    private final FileChannel channel;
+    private final UnityIndex index;
+
+    /**
+     * Opens a Unity file whose index is at the default sidecar location.
+     *
+     * @param source the indexed Unity file
+     * @throws IOException if either file cannot be read, or the index does not match the file
+     */
+    public UnityIndexedReader(Path source) throws IOException {
+        this(source, UnityIndex.sidecarFor(source));
+    }
+
+    private UnityIndexedReader(Path source, Path sidecar) throws IOException {
+        this(source, UnityIndex.read(sidecar), sidecar);
+    }
+
+    /**
+     * Opens a Unity file with an index that has already been loaded. Since the
+     * index's sidecar is not known, times found to be trustworthy are not
+     * written back.
+     *
+     * @param source the indexed Unity file
+     * @param index  the index of {@code source}
+     * @throws IOException if the file cannot be read, or the index does not match the file
+     */
+    public UnityIndexedReader(Path source, UnityIndex index) throws IOException {
+        this(source, index, null);
+    }
+
+    private UnityIndexedReader(Path source, UnityIndex index, Path sidecar) throws IOException {
+        this.channel = FileChannel.open(source, StandardOpenOption.READ);
+        this.index = index;
+        try {
+            checkSource(source, sidecar);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void checkSource(Path source, Path sidecar) throws IOException {
+        long length = channel.size();
+        if (length != index.sourceLength()) {
+            throw new IOException("Index does not match " + source + ": expected " + index.sourceLength()
+                    + " bytes, found " + length);
+        }
+        long modified = Files.getLastModifiedTime(source).toMillis();
+        if (modified == index.sourceModified() && modified <= index.sourceChecked() - RACY_MILLIS) {
+            return;
+        }
+        long checked = System.currentTimeMillis();
+        CRC32C checksum = new CRC32C();
+        for (long position = 0; position < length; position += WINDOW_SIZE) {
+            checksum.update(channel.map(FileChannel.MapMode.READ_ONLY, position,
+                    Math.min(WINDOW_SIZE, length - position)));
+        }
+        if ((int) checksum.getValue() != index.sourceChecksum()) {
+            throw new IOException("Index does not match " + source + ": contents have changed since indexing");
+        }
+        if (sidecar != null && modified <= checked - RACY_MILLIS) {
+            try {
+                index.writeSourceTimes(sidecar, modified, checked);
+            } catch (IOException e) {
+                // The index is still usable; the next reader checks the contents again
+            }
+        }
+    }
+
+    /** Returns the index used by this reader. */
+    public UnityIndex index() {
+        return index;
+    }
+
+    /**
+     * Parses the given production.
+     *
+     * @param entry a production from this reader's index
+     * @return the production as a JSON array
+     * @throws IOException if the production cannot be read
+     */
+    public JSONArray read(UnityIndex.Entry entry) throws IOException {
+        if (entry.length() > Integer.MAX_VALUE) {
+            throw new IOException("Production at byte " + entry.start() + " is too large to map ("
+                    + entry.length() + " bytes)");
+        }
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, entry.start(), entry.length());
+        return new JSONArray(StandardCharsets.UTF_8.decode(buffer).toString());
+    }
+
+    /**
+     * Parses the nth production (counting from 0 in document order) with the
+     * given element name, at any depth.
+     */
+    public Optional<JSONArray> find(String name, int n) throws IOException {
+        Optional<UnityIndex.Entry> entry = index.find(name, n);
+        return entry.isPresent() ? Optional.of(read(entry.get())) : Optional.empty();
+    }
+
+    /**
+     * Parses the nth production (counting from 0 in document order) with the
+     * given element name at the given depth.
+     */
+    public Optional<JSONArray> find(int depth, String name, int n) throws IOException {
+        Optional<UnityIndex.Entry> entry = index.find(depth, name, n);
+        return entry.isPresent() ? Optional.of(read(entry.get())) : Optional.empty();
+    }
+
+    /**
+     * Parses the productions whose attribute has the given value, in document order.
+     *
+     * @throws IllegalArgumentException if the attribute was not indexed
+     */
+    public List<JSONArray> findByAttribute(String attribute, String value) throws IOException {
+        List<JSONArray> productions = new ArrayList<>();
+        for (UnityIndex.Entry entry : index.findByAttribute(attribute, value)) {
+            productions.add(read(entry));
+        }
+        return productions;
+    }
+
+    /**
+     * Opens a stream over a byte range of the file. The range is mapped in
+     * windows of at most {@value #WINDOW_SIZE} bytes, so it may be larger
+     * than a single mapping allows, and skipping moves to another window
+     * without reading the bytes in between.
+     */
+    InputStream open(long start, long end) {
+        return new InputStream() {
+            private long position = start;
+            private long windowStart;
+            private MappedByteBuffer window;
+
+            @Override
+            public int read() throws IOException {
+                if (position >= end) {
+                    return -1;
+                }
+                mapWindow();
+                return window.get((int) (position++ - windowStart)) & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (position >= end) {
+                    return -1;
+                }
+                mapWindow();
+                int n = (int) Math.min(len, Math.min(end, windowStart + window.capacity()) - position);
+                window.get((int) (position - windowStart), b, off, n);
+                position += n;
+                return n;
+            }
+
+            @Override
+            public long skip(long n) {
+                long skipped = Math.max(0, Math.min(n, end - position));
+                position += skipped;
+                return skipped;
+            }
+
+            private void mapWindow() throws IOException {
+                if (window == null || position < windowStart || position >= windowStart + window.capacity()) {
+                    windowStart = position;
+                    window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW_SIZE, end - position));
+                }
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
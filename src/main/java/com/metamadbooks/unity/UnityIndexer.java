@@ -0,0 +1,265 @@
+package com.metamadbooks.unity;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * Builds a {@link UnityIndex} for a Unity file in a single validating pass.
+ * <p>
+ * The file is streamed rather than parsed into a tree, but the index is built
+ * in memory before it is written. Indexing needs about 100 bytes of heap per
+ * production, plus about 250 bytes per distinct value of an indexed attribute
+ * and, with subtree hashes, 64 bytes per production. For example, a 130 MB
+ * file of 5.4 million productions needs about 512 MB of heap, or about 900 MB
+ * when 1.8 million of them have a distinct indexed {@code id}. The index is
+ * only written if the file is valid Unity markup, and records a checksum of
+ * the file computed in the same pass.
+ *
+ * <pre>{@code
+ * UnityIndexer indexer = new UnityIndexer(Set.of("id"));
+ * ValidationResult result = indexer.index(Path.of("menu.json"));
+ *
+ * try (UnityIndexedReader reader = new UnityIndexedReader(Path.of("menu.json"))) {
+ *     JSONArray food = reader.findByAttribute("id", "002").get(0);
+ * }
+ * }</pre>
+ */
+public class UnityIndexer {
+
+    private final Set<String> indexedAttributes;
+    private final boolean subtreeHashes;
+
+    /**
+     * Creates an indexer that records productions only.
+     */
+    public UnityIndexer() {
+        this(Set.of());
+    }
+
+    /**
+     * Creates an indexer that also records the values of the given attributes,
+     * so that productions can be looked up with {@link UnityIndex#findByAttribute}.
+     *
+     * @param indexedAttributes names of the attributes to index
+     */
+    public UnityIndexer(Set<String> indexedAttributes) {
+        this(indexedAttributes, false);
+    }
+
+    /**
+     * Creates an indexer that records the values of the given attributes and,
+     * optionally, the subtree hash of every production. Each production also
+     * gets a head hash, covering its own name, attributes and text items but
+     * not its children, so hashes add 64 bytes per production to the index.
+     * They are required by {@link UnityDiff}.
+     *
+     * @param indexedAttributes names of the attributes to index
+     * @param subtreeHashes     whether to compute and store subtree hashes
+     */
+    public UnityIndexer(Set<String> indexedAttributes, boolean subtreeHashes) {
+        this.indexedAttributes = new LinkedHashSet<>(indexedAttributes);
+        this.subtreeHashes = subtreeHashes;
+    }
+
+    /**
+     * Validates a Unity file and writes its index to the default sidecar
+     * location, {@link UnityIndex#sidecarFor(Path)}.
+     *
+     * @param source the Unity file to index
+     * @return ValidationResult containing any errors found
+     */
+    public ValidationResult index(Path source) throws IOException {
+        return index(source, UnityIndex.sidecarFor(source));
+    }
+
+    /**
+     * Validates a Unity file and, if it is valid, writes its index to the given
+     * sidecar file. If it is not valid, any existing sidecar is deleted.
+     *
+     * @param source  the Unity file to index
+     * @param sidecar where to write the index
+     * @return ValidationResult containing any errors found
+     */
+    public ValidationResult index(Path source, Path sidecar) throws IOException {
+        ValidationResult result = new ValidationResult();
+        // Taken before reading, so that a write during indexing changes the time
+        long modified = Files.getLastModifiedTime(source).toMillis();
+        long checked = System.currentTimeMillis();
+        long length = Files.size(source);
+        UnityIndex index;
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(source))) {
+            index = build(in, length, modified, checked, result);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        if (result.isValid()) {
+            index.write(sidecar);
+        } else {
+            Files.deleteIfExists(sidecar);
+        }
+        return result;
+    }
+
+    /**
+     * Builds an index from a stream, adding any errors found to the result.
+     * The returned index is incomplete if the result has errors.
+     *
+     * @param sourceModified the modification time of the source in milliseconds
+     * @param sourceChecked  the time in milliseconds at which reading the source started
+     */
+    UnityIndex build(InputStream in, long sourceLength, long sourceModified, long sourceChecked,
+                     ValidationResult result) {
+        Builder builder = new Builder();
+        UnityHandler handler = builder;
+        if (subtreeHashes) {
+            handler = UnityHandler.both(builder, UnityHandler.both(UnityCanonicalizer.hasher(builder::setHash),
+                    UnityCanonicalizer.headHasher(builder::setHead)));
+        }
+        CRC32C checksum = new CRC32C();
+        new UnityStreamParser(new CheckedInputStream(in, checksum), handler, result).parseDocument();
+        return builder.toIndex(sourceLength, sourceModified, sourceChecked, (int) checksum.getValue());
+    }
+
+    /**
+     * Records productions in document order as the parser reports them.
+     */
+    private class Builder implements UnityHandler {
+
+        private final Map<String, Integer> nameIds = new HashMap<>();
+        private final List<String> names = new ArrayList<>();
+        private final Map<String, Map<String, IntList>> attributeValues = new LinkedHashMap<>();
+
+        private int count;
+        private int[] productionNameIds = new int[1024];
+        private int[] depths = new int[1024];
+        private int[] indexes = new int[1024];
+        private long[] starts = new long[1024];
+        private long[] ends = new long[1024];
+        private int[] descendants = new int[1024];
+        private byte[] hashes = subtreeHashes ? new byte[1024 * UnityIndex.HASH_LENGTH] : null;
+        private byte[] heads = subtreeHashes ? new byte[1024 * UnityIndex.HASH_LENGTH] : null;
+
+        /** Ordinals of the open productions. */
+        private final IntList open = new IntList();
+
+        Builder() {
+            for (String attribute : indexedAttributes) {
+                attributeValues.put(attribute, new HashMap<>());
+            }
+        }
+
+        @Override
+        public void startProduction(String name, Map<String, Object> attributes, int index, long offset) {
+            if (count == starts.length) {
+                grow();
+            }
+            int ordinal = count++;
+            productionNameIds[ordinal] = nameIds.computeIfAbsent(String.valueOf(name), n -> {
+                names.add(n);
+                return names.size() - 1;
+            });
+            depths[ordinal] = open.size;
+            indexes[ordinal] = index;
+            starts[ordinal] = offset;
+            open.add(ordinal);
+
+            for (Map.Entry<String, Map<String, IntList>> attribute : attributeValues.entrySet()) {
+                Object value = attributes.get(attribute.getKey());
+                if (value != null) {
+                    attribute.getValue().computeIfAbsent(attributeText(value), v -> new IntList()).add(ordinal);
+                }
+            }
+        }
+
+        @Override
+        public void endProduction(long offset) {
+            int ordinal = open.values[--open.size];
+            ends[ordinal] = offset;
+            descendants[ordinal] = count - ordinal - 1;
+        }
+
+        private void grow() {
+            int capacity = starts.length * 2;
+            productionNameIds = Arrays.copyOf(productionNameIds, capacity);
+            depths = Arrays.copyOf(depths, capacity);
+            indexes = Arrays.copyOf(indexes, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            descendants = Arrays.copyOf(descendants, capacity);
+            if (hashes != null) {
+                hashes = Arrays.copyOf(hashes, capacity * UnityIndex.HASH_LENGTH);
+                heads = Arrays.copyOf(heads, capacity * UnityIndex.HASH_LENGTH);
+            }
+        }
+
+        void setHash(UnityCanonicalizer.SubtreeHash hash) {
+            System.arraycopy(hash.hash(), 0, hashes, hash.ordinal() * UnityIndex.HASH_LENGTH, UnityIndex.HASH_LENGTH);
+        }
+
+        void setHead(byte[] head, int ordinal) {
+            System.arraycopy(head, 0, heads, ordinal * UnityIndex.HASH_LENGTH, UnityIndex.HASH_LENGTH);
+        }
+
+        UnityIndex toIndex(long sourceLength, long sourceModified, long sourceChecked, int sourceChecksum) {
+            Map<String, Map<String, int[]>> values = new LinkedHashMap<>();
+            for (Map.Entry<String, Map<String, IntList>> attribute : attributeValues.entrySet()) {
+                Map<String, int[]> ordinals = new HashMap<>();
+                attribute.getValue().forEach((value, list) -> ordinals.put(value, list.toArray()));
+                values.put(attribute.getKey(), ordinals);
+            }
+            return new UnityIndex(sourceLength, sourceModified, sourceChecked, sourceChecksum,
+                    names.toArray(new String[0]), Arrays.copyOf(productionNameIds, count),
+                    Arrays.copyOf(depths, count), Arrays.copyOf(indexes, count), Arrays.copyOf(starts, count),
+                    Arrays.copyOf(ends, count), Arrays.copyOf(descendants, count), values,
+                    hashes == null ? null : Arrays.copyOf(hashes, count * UnityIndex.HASH_LENGTH),
+                    heads == null ? null : Arrays.copyOf(heads, count * UnityIndex.HASH_LENGTH));
+        }
+    }
+
+    /**
+     * Returns the text an attribute value is indexed by: a string as it is,
+     * and any other value in canonical form (see {@link UnityCanonicalizer}),
+     * so that {@code 1e3} and {@code 1000.0} are both found as "1000".
+     */
+    static String attributeText(Object value) {
+        if (value instanceof String) {
+            return (String) value;
+        }
+        StringBuilder sb = new StringBuilder();
+        UnityCanonicalizer.appendValue(sb, value);
+        return sb.toString();
+    }
+
+    /**
+     * A growable list of ints, to avoid boxing one Integer per production.
+     */
+    private static final class IntList {
+        int[] values = new int[8];
+        int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
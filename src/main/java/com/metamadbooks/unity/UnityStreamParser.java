@@ -0,0 +1,259 @@
+package com.metamadbooks.unity;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static com.metamadbooks.unity.UnityTokenizer.*;
+
+/**
+ * Validates Unity markup in a single pass over a byte stream, reporting
+ * productions and content to a {@link UnityHandler} as they are read.
+ * <p>
+ * This is the engine behind {@link UnityValidator}. It never materializes the
+ * document, so memory use is bounded by the nesting depth rather than the size
+ * of the input. Every error carries the byte offset, line and column of the
+ * token it was found at, taken from the tokenizer as the error is reported,
+ * so later errors never require another pass. Paths are only built when an
+ * error is reported.
+ */
+final class UnityStreamParser {
+
+    private final UnityTokenizer tokenizer;
+    private final UnityHandler handler;
+    private final ValidationResult result;
+
+    /** Position of each open production within its parent array. */
+    private int[] indexes = new int[16];
+    private int depth;
+
+    UnityStreamParser(InputStream in, UnityHandler handler, ValidationResult result) {
+        this(new UnityTokenizer(in, 0), handler, result);
+    }
+
+    UnityStreamParser(UnityTokenizer tokenizer, UnityHandler handler, ValidationResult result) {
+        this.tokenizer = tokenizer;
+        this.handler = handler;
+        this.result = result;
+    }
+
+    /**
+     * Parses a complete document: a single top-level array and nothing after it.
+     *
+     * @return false if the input is not well-formed JSON
+     */
+    boolean parseDocument() {
+        try {
+            int token = tokenizer.next();
+            if (token == EOF) {
+                addError("", "Input is null or empty");
+                return true;
+            }
+            if (token != BEGIN_ARRAY) {
+                parseTopLevelValue(token);
+                return true;
+            }
+            parseProduction(0);
+            token = tokenizer.next();
+            if (token != EOF) {
+                throw tokenizer.syntaxError("Unexpected " + describe(token) + " after top-level array");
+            }
+            return true;
+        } catch (JSONException e) {
+            long offset = tokenizer.errorOffset();
+            result.addError("", "Invalid JSON: " + e.getMessage(), offset, tokenizer.line(), tokenizer.column(offset));
+            return false;
+        } catch (StackOverflowError e) {
+            // Like org.json, nesting is bounded by the thread's stack rather than a fixed limit
+            addError("", "Invalid JSON: Nesting too deep");
+            return false;
+        }
+    }
+
+    /**
+     * Reads a top-level value that is not an array, and reports it only once
+     * the rest of the document has turned out to be well-formed.
+     */
+    private void parseTopLevelValue(int token) {
+        requireValue(token);
+        long offset = tokenizer.tokenStart();
+        long line = tokenizer.line();
+        long column = tokenizer.column(offset);
+        String type = getTypeName(token);
+        tokenizer.skipValue(token);
+        token = tokenizer.next();
+        if (token != EOF) {
+            throw tokenizer.syntaxError("Unexpected " + describe(token) + " after top-level value");
+        }
+        result.addError("", "Top level must be a JSON Array, got " + type, offset, line, column);
+    }
+
+    /**
+     * Parses a production after its opening bracket has been read.
+     */
+    private void parseProduction(int index) {
+        long start = tokenizer.tokenStart();
+        push(index);
+
+        int token = tokenizer.next();
+        if (token == END_ARRAY) {
+            addError(path(), "Unity production must have at least one element (the element name)");
+            handler.startProduction(null, Map.of(), index, start);
+            handler.endProduction(tokenizer.position());
+            depth--;
+            return;
+        }
+
+        // Index 0: Element name (required, must be a string conforming to XML name rules)
+        requireValue(token);
+        String name = null;
+        if (token == STRING) {
+            name = tokenizer.text();
+            if (!XmlNameValidator.isValidName(name)) {
+                addError(path() + "[0]", "Invalid XML element name: \"" + name + "\"");
+            }
+        } else {
+            addError(path() + "[0]", "Element name must be a string, got " + getTypeName(token));
+            tokenizer.skipValue(token);
+        }
+
+        // Index 1: attributes, if it is an object
+        Map<String, Object> attributes = Map.of();
+        int contentIndex = 1;
+        boolean more = tokenizer.expectSeparator(COMMA, END_ARRAY);
+        if (more) {
+            token = tokenizer.next();
+            if (token == BEGIN_OBJECT) {
+                attributes = parseAttributes();
+                contentIndex = 2;
+                more = tokenizer.expectSeparator(COMMA, END_ARRAY);
+                if (more) {
+                    token = tokenizer.next();
+                }
+            }
+        }
+        handler.startProduction(name, attributes, index, start);
+
+        while (more) {
+            parseContent(token, contentIndex++);
+            more = tokenizer.expectSeparator(COMMA, END_ARRAY);
+            if (more) {
+                token = tokenizer.next();
+            }
+        }
+
+        handler.endProduction(tokenizer.position());
+        depth--;
+    }
+
+    /**
+     * Parses an attributes object after its opening brace has been read.
+     * Attribute names must conform to XML name rules and values must be primitives.
+     */
+    private Map<String, Object> parseAttributes() {
+        Map<String, Object> attributes = new LinkedHashMap<>();
+        int token = tokenizer.next();
+        if (token == END_OBJECT) {
+            return attributes;
+        }
+        do {
+            if (token != STRING) {
+                throw tokenizer.syntaxError("Expected attribute name but found " + describe(token));
+            }
+            String key = tokenizer.text();
+            if (attributes.containsKey(key)) {
+                throw tokenizer.syntaxError("Duplicate key \"" + key + "\"");
+            }
+            if (!XmlNameValidator.isValidName(key)) {
+                addError(path() + "[1]." + key, "Invalid XML attribute name: \"" + key + "\"");
+            }
+            token = tokenizer.next();
+            if (token != COLON) {
+                throw tokenizer.syntaxError("Expected ':' but found " + describe(token));
+            }
+
+            token = tokenizer.next();
+            requireValue(token);
+            if (token == BEGIN_ARRAY || token == BEGIN_OBJECT) {
+                addError(path() + "[1]." + key,
+                        "Attribute value must be a primitive (String, Number, Boolean, or Null), got " + getTypeName(token));
+                tokenizer.skipValue(token);
+                attributes.put(key, JSONObject.NULL);
+            } else {
+                attributes.put(key, tokenizer.primitiveValue(token));
+            }
+            if (!tokenizer.expectSeparator(COMMA, END_OBJECT)) {
+                return attributes;
+            }
+            token = tokenizer.next();
+        } while (true);
+    }
+
+    /**
+     * Parses a content item: a primitive or a nested Unity production.
+     */
+    private void parseContent(int token, int index) {
+        requireValue(token);
+        if (token == BEGIN_ARRAY) {
+            parseProduction(index);
+        } else if (token == BEGIN_OBJECT) {
+            // JSON Objects are only allowed at index 1 as attributes
+            addError(path() + "[" + index + "]",
+                    "JSON Object not allowed as content (only allowed at index 1 as attributes)");
+            tokenizer.skipValue(token);
+        } else {
+            handler.text(tokenizer.primitiveValue(token), index, tokenizer.tokenStart());
+        }
+    }
+
+    /**
+     * Reports an error at the start of the last token read.
+     */
+    private void addError(String path, String message) {
+        long offset = tokenizer.tokenStart();
+        result.addError(path, message, offset, tokenizer.line(), tokenizer.column(offset));
+    }
+
+    private void requireValue(int token) {
+        if (token < BEGIN_ARRAY || token > NULL || token == END_ARRAY || token == END_OBJECT) {
+            throw tokenizer.syntaxError("Expected a value but found " + describe(token));
+        }
+    }
+
+    private void push(int index) {
+        if (depth == indexes.length) {
+            indexes = Arrays.copyOf(indexes, depth * 2);
+        }
+        indexes[depth++] = index;
+    }
+
+    /**
+     * Returns the path of the innermost open production, e.g. "[2][3]".
+     * The root production has the empty path.
+     */
+    private String path() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 1; i < depth; i++) {
+            sb.append('[').append(indexes[i]).append(']');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns a human-readable type name for error messages.
+     */
+    private static String getTypeName(int token) {
+        return switch (token) {
+            case BEGIN_ARRAY -> "Array";
+            case BEGIN_OBJECT -> "Object";
+            case STRING -> "String";
+            case NUMBER -> "Number";
+            case TRUE, FALSE -> "Boolean";
+            default -> "null";
+        };
+    }
+}
@@ -0,0 +1,423 @@
+package com.metamadbooks.unity;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+
+/**
+ * A pull-style JSON tokenizer that reads UTF-8 bytes from a stream.
+ * <p>
+ * Unlike {@link org.json.JSONTokener}, the tokenizer works on raw bytes and
+ * tracks the absolute byte offset of every token, which is what the indexer
+ * and the subtree reader need to jump around in large files. Commas and
+ * colons are checked by the caller via {@link #expectSeparator}.
+ * <p>
+ * Line numbers are tracked for error reporting. JSON only allows a raw
+ * newline between tokens, so lines are counted in the whitespace loop alone,
+ * and only when a {@code '\n'} is actually seen; columns are derived from
+ * offsets on demand. See {@code PositionTrackingBenchmark} in the test sources
+ * for what this costs.
+ */
+final class UnityTokenizer {
+
+    static final int EOF = 0;
+    static final int BEGIN_ARRAY = 1;
+    static final int END_ARRAY = 2;
+    static final int BEGIN_OBJECT = 3;
+    static final int END_OBJECT = 4;
+    static final int STRING = 5;
+    static final int NUMBER = 6;
+    static final int TRUE = 7;
+    static final int FALSE = 8;
+    static final int NULL = 9;
+    static final int COMMA = 10;
+    static final int COLON = 11;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final InputStream in;
+    private final byte[] buf = new byte[BUFFER_SIZE];
+    private int pos;
+    private int limit;
+
+    /** Absolute offset of {@code buf[0]}. */
+    private long base;
+
+    private long tokenStart;
+    private long errorOffset;
+
+    /** Number of the current line, counting from 1. */
+    private long line = 1;
+
+    /** Absolute offset of the first byte of the current line. */
+    private long lineStart;
+    private final StringBuilder text = new StringBuilder();
+
+    /**
+     * Creates a tokenizer reading from the start of the stream.
+     *
+     * @param in         the UTF-8 encoded input
+     * @param baseOffset the absolute offset of the first byte of {@code in}
+     */
+    UnityTokenizer(InputStream in, long baseOffset) {
+        this.in = in;
+        this.base = baseOffset;
+        this.lineStart = baseOffset;
+    }
+
+    /**
+     * Returns the next token, skipping whitespace.
+     *
+     * @throws JSONException if the input is not well-formed JSON
+     */
+    int next() {
+        int c = skipWhitespace();
+        tokenStart = base + pos - 1;
+        switch (c) {
+            case -1:
+                tokenStart = base + pos;
+                return EOF;
+            case '[':
+                return BEGIN_ARRAY;
+            case ']':
+                return END_ARRAY;
+            case '{':
+                return BEGIN_OBJECT;
+            case '}':
+                return END_OBJECT;
+            case ',':
+                return COMMA;
+            case ':':
+                return COLON;
+            case '"':
+                readString();
+                return STRING;
+            case 't':
+                expectLiteral("rue");
+                return TRUE;
+            case 'f':
+                expectLiteral("alse");
+                return FALSE;
+            case 'n':
+                expectLiteral("ull");
+                return NULL;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    readNumber(c);
+                    return NUMBER;
+                }
+                throw syntaxError("Unexpected character '" + (char) c + "'");
+        }
+    }
+
+    /**
+     * Reads the next token and checks that it is either the given separator or
+     * the given closing token.
+     *
+     * @return true if the separator was read, false if the closing token was read
+     */
+    boolean expectSeparator(int separator, int closing) {
+        int token = next();
+        if (token == separator) {
+            return true;
+        }
+        if (token == closing) {
+            return false;
+        }
+        throw syntaxError("Expected " + describe(separator) + " or " + describe(closing)
+                + " but found " + describe(token));
+    }
+
+    /**
+     * Skips the remainder of a value whose first token has just been read.
+     * Used to step over arrays and objects in positions that are already known
+     * to be invalid, so that parsing can continue after them.
+     */
+    void skipValue(int firstToken) {
+        int depth = 0;
+        int token = firstToken;
+        while (true) {
+            switch (token) {
+                case BEGIN_ARRAY, BEGIN_OBJECT -> depth++;
+                case END_ARRAY, END_OBJECT -> depth--;
+                case EOF -> throw syntaxError("Unexpected end of input");
+                default -> {
+                }
+            }
+            if (depth == 0) {
+                return;
+            }
+            token = next();
+        }
+    }
+
+    /** Returns the absolute offset of the first byte of the last token. */
+    long tokenStart() {
+        return tokenStart;
+    }
+
+    /** Returns the absolute offset just past the last token. */
+    long position() {
+        return base + pos;
+    }
+
+    /** Returns the decoded value of the last STRING token, or the text of the last NUMBER token. */
+    String text() {
+        return text.toString();
+    }
+
+    /**
+     * Returns the value of the last NUMBER token.
+     *
+     * @throws JSONException if the exponent is too large to represent
+     */
+    BigDecimal number() {
+        try {
+            return new BigDecimal(text.toString());
+        } catch (NumberFormatException e) {
+            throw syntaxError("Invalid number");
+        }
+    }
+
+    /**
+     * Returns the value of the last token, which must be a primitive: a
+     * {@code String}, {@code BigDecimal}, {@code Boolean} or {@link JSONObject#NULL}.
+     */
+    Object primitiveValue(int token) {
+        return switch (token) {
+            case STRING -> text();
+            case NUMBER -> number();
+            case TRUE -> Boolean.TRUE;
+            case FALSE -> Boolean.FALSE;
+            default -> JSONObject.NULL;
+        };
+    }
+
+    /**
+     * Returns the line of the last token, or of the last syntax error, counting from 1.
+     */
+    long line() {
+        return line;
+    }
+
+    /**
+     * Returns the 1-based column, in bytes, of an offset on the current line.
+     */
+    long column(long offset) {
+        return offset - lineStart + 1;
+    }
+
+    /** Returns the absolute offset of the last syntax error. */
+    long errorOffset() {
+        return errorOffset;
+    }
+
+    /**
+     * Creates an exception for a syntax error at the start of the last token.
+     */
+    JSONException syntaxError(String message) {
+        return syntaxError(message, tokenStart);
+    }
+
+    private JSONException syntaxError(String message, long offset) {
+        errorOffset = offset;
+        return new JSONException(message);
+    }
+
+    /** Returns the absolute offset of the byte most recently read. */
+    private long lastByte() {
+        return base + pos - 1;
+    }
+
+    static String describe(int token) {
+        return switch (token) {
+            case EOF -> "end of input";
+            case BEGIN_ARRAY -> "'['";
+            case END_ARRAY -> "']'";
+            case BEGIN_OBJECT -> "'{'";
+            case END_OBJECT -> "'}'";
+            case STRING -> "string";
+            case NUMBER -> "number";
+            case TRUE, FALSE -> "boolean";
+            case NULL -> "null";
+            case COMMA -> "','";
+            case COLON -> "':'";
+            default -> "token " + token;
+        };
+    }
+
+    private int read() {
+        if (pos == limit && !fill()) {
+            pos = limit;
+            return -1;
+        }
+        return buf[pos++] & 0xFF;
+    }
+
+    private boolean fill() {
+        base += limit;
+        pos = 0;
+        limit = 0;
+        try {
+            int n;
+            do {
+                n = in.read(buf, 0, buf.length);
+            } while (n == 0);
+            if (n < 0) {
+                return false;
+            }
+            limit = n;
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private int skipWhitespace() {
+        while (true) {
+            int c = read();
+            if (c > ' ') {
+                return c;
+            }
+            if (c == '\n') {
+                line++;
+                lineStart = base + pos;
+            } else if (c != ' ' && c != '\r' && c != '\t') {
+                return c;
+            }
+        }
+    }
+
+    private void expectLiteral(String rest) {
+        for (int i = 0; i < rest.length(); i++) {
+            if (read() != rest.charAt(i)) {
+                throw syntaxError("Invalid literal", lastByte());
+            }
+        }
+    }
+
+    private void readNumber(int first) {
+        text.setLength(0);
+        int c = first;
+        if (c == '-') {
+            text.append('-');
+            c = read();
+        }
+        if (c == '0') {
+            text.append('0');
+            c = read();
+        } else if (c >= '1' && c <= '9') {
+            c = readDigits(c);
+        } else {
+            throw syntaxError("Invalid number", lastByte());
+        }
+        if (c == '.') {
+            text.append('.');
+            c = read();
+            if (c < '0' || c > '9') {
+                throw syntaxError("Invalid number", lastByte());
+            }
+            c = readDigits(c);
+        }
+        if (c == 'e' || c == 'E') {
+            text.append('e');
+            c = read();
+            if (c == '+' || c == '-') {
+                text.append((char) c);
+                c = read();
+            }
+            if (c < '0' || c > '9') {
+                throw syntaxError("Invalid number", lastByte());
+            }
+            c = readDigits(c);
+        }
+        if (c != -1) {
+            pos--;
+        }
+    }
+
+    private int readDigits(int c) {
+        while (c >= '0' && c <= '9') {
+            text.append((char) c);
+            c = read();
+        }
+        return c;
+    }
+
+    private void readString() {
+        text.setLength(0);
+        while (true) {
+            int c = read();
+            if (c == '"') {
+                return;
+            } else if (c == '\\') {
+                readEscape();
+            } else if (c < 0) {
+                throw syntaxError("Unterminated string", position());
+            } else if (c < 0x20) {
+                throw syntaxError("Control character in string", lastByte());
+            } else if (c < 0x80) {
+                text.append((char) c);
+            } else {
+                readMultiByte(c);
+            }
+        }
+    }
+
+    private void readEscape() {
+        int c = read();
+        switch (c) {
+            case '"', '\\', '/' -> text.append((char) c);
+            case 'b' -> text.append('\b');
+            case 'f' -> text.append('\f');
+            case 'n' -> text.append('\n');
+            case 'r' -> text.append('\r');
+            case 't' -> text.append('\t');
+            case 'u' -> {
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(read(), 16);
+                    if (digit < 0) {
+                        throw syntaxError("Invalid unicode escape", lastByte());
+                    }
+                    value = (value << 4) | digit;
+                }
+                text.append((char) value);
+            }
+            default -> throw syntaxError("Invalid escape sequence", lastByte());
+        }
+    }
+
+    private void readMultiByte(int lead) {
+        int extra;
+        int codePoint;
+        if ((lead & 0xE0) == 0xC0) {
+            extra = 1;
+            codePoint = lead & 0x1F;
+        } else if ((lead & 0xF0) == 0xE0) {
+            extra = 2;
+            codePoint = lead & 0x0F;
+        } else if ((lead & 0xF8) == 0xF0) {
+            extra = 3;
+            codePoint = lead & 0x07;
+        } else {
+            throw syntaxError("Invalid UTF-8 sequence", lastByte());
+        }
+        for (int i = 0; i < extra; i++) {
+            int c = read();
+            if ((c & 0xC0) != 0x80) {
+                throw syntaxError("Invalid UTF-8 sequence", lastByte());
+            }
+            codePoint = (codePoint << 6) | (c & 0x3F);
+        }
+        if (codePoint > Character.MAX_CODE_POINT
+                || (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)) {
+            throw syntaxError("Invalid UTF-8 sequence", lastByte());
+        }
+        text.appendCodePoint(codePoint);
+    }
+}
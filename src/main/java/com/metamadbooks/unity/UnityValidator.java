@@ -4,12 +4,28 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
 /**
  * Validates Unity markup according to the Unity specification.
  * <p>
  * Unity is a markup language implemented in standard JSON that provides
  * essential components from the XML Infoset. It uses JSON Arrays as the
  * primary structural element to represent XML-like hierarchical data.
+ * <p>
+ * Validation streams the input in a single pass without building a tree, and
+ * each error records where in the input it was found (see {@link ValidationError}).
+ * The streaming pass accepts strict JSON (RFC 8259) only. For compatibility,
+ * {@link #validate(String)} also accepts the lenient syntax of org.json's
+ * parser, such as single-quoted or unquoted strings, trailing commas and text
+ * after the top-level array; errors in such documents have no source position.
  */
 public class UnityValidator {
 
@@ -27,23 +43,71 @@ public class UnityValidator {
             return result;
         }
 
+        if (parse(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), result)) {
+            return result;
+        }
+
+        // Not strict JSON: fall back to org.json, which accepts more, and keep
+        // the positioned syntax error only if org.json rejects the input too
         Object parsed;
         try {
             parsed = parseJson(json);
         } catch (JSONException e) {
-            result.addError("", "Invalid JSON: " + e.getMessage());
             return result;
         }
 
+        ValidationResult lenient = new ValidationResult();
         if (!(parsed instanceof JSONArray)) {
-            result.addError("", "Top level must be a JSON Array, got " + getTypeName(parsed));
-            return result;
+            lenient.addError("", "Top level must be a JSON Array, got " + getTypeName(parsed));
+            return lenient;
         }
 
-        validateProduction((JSONArray) parsed, "", result);
+        validateProduction((JSONArray) parsed, "", lenient);
+        return lenient;
+    }
+
+    /**
+     * Validates a Unity file without loading it into memory. The file must be
+     * strict JSON.
+     *
+     * @param file the UTF-8 encoded file to validate as Unity markup
+     * @return ValidationResult containing any errors found
+     * @throws IOException if the file cannot be read
+     */
+    public ValidationResult validateFile(Path file) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+            return validateStream(in);
+        }
+    }
+
+    /**
+     * Validates Unity markup read from a stream. The input must be strict JSON.
+     * The stream is not closed.
+     *
+     * @param in the UTF-8 encoded input to validate as Unity markup
+     * @return ValidationResult containing any errors found
+     * @throws IOException if the stream cannot be read
+     */
+    public ValidationResult validateStream(InputStream in) throws IOException {
+        ValidationResult result = new ValidationResult();
+        try {
+            parse(in, result);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
         return result;
     }
 
+    /**
+     * Validates strict JSON in a single streaming pass.
+     *
+     * @return false if the input is not well-formed JSON
+     */
+    private boolean parse(InputStream in, ValidationResult result) {
+        return new UnityStreamParser(in, new UnityHandler() {
+        }, result).parseDocument();
+    }
+
     /**
      * Validates a Unity production (a JSON Array representing an element).
      *
@@ -2,14 +2,38 @@ package com.metamadbooks.unity;
 
 /**
  * Represents a validation error found during Unity markup validation.
+ * <p>
+ * Errors found by parsing the input also carry the position in the input
+ * where the error was detected. Lines are counted by {@code '\n'} and columns
+ * are counted in bytes of the UTF-8 encoded input, both starting at 1.
  *
  * @param path    JSON path to the error location (e.g., "[0]", "[1][2]")
  * @param message Description of the validation error
+ * @param offset  Byte offset of the error in the input, or -1 if unknown
+ * @param line    Line of the error, or 0 if unknown
+ * @param column  Column of the error, in bytes, or 0 if unknown
  */
-public record ValidationError(String path, String message) {
+public record ValidationError(String path, String message, long offset, long line, long column) {
+
+    /**
+     * Creates an error without a source position.
+     */
+    public ValidationError(String path, String message) {
+        this(path, message, -1, 0, 0);
+    }
+
+    /**
+     * Returns true if the error carries a source position.
+     */
+    public boolean hasPosition() {
+        return offset >= 0;
+    }
 
     @Override
     public String toString() {
+        if (hasPosition()) {
+            return path + ": " + message + " (line " + line + ", column " + column + ", byte " + offset + ")";
+        }
         return path + ": " + message;
     }
 }
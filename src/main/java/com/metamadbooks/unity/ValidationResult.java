@@ -15,6 +15,10 @@ public class ValidationResult {
         errors.add(new ValidationError(path, message));
     }
 
+    public void addError(String path, String message, long offset, long line, long column) {
+        errors.add(new ValidationError(path, message, offset, line, column));
+    }
+
     public boolean isValid() {
         return errors.isEmpty();
     }
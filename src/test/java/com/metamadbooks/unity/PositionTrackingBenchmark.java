@@ -0,0 +1,208 @@
+package com.metamadbooks.unity;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Measures what source position tracking costs when validating valid documents.
+ * <p>
+ * Each measurement runs in a fresh JVM, and the forks of the variants being
+ * compared are interleaved so that drift in the machine's state affects them
+ * alike. A fork validates the same generated document in two forms per round:
+ * pretty-printed with one production per line, and with every newline
+ * replaced by a space. Both have the same length and the same tokens, and
+ * only the first ever takes the line-counting branch.
+ * <p>
+ * Two comparisons are reported:
+ * <ul>
+ *   <li>with against without newlines, in the current build: the cost of
+ *       counting lines</li>
+ *   <li>the current build against a build from before position tracking was
+ *       added, given with {@code --baseline}: the cost of the whole change,
+ *       including the rewritten whitespace loop</li>
+ * </ul>
+ * The baseline build's classes are put first on the fork's classpath, so the
+ * same workload runs against the old tokenizer and parser. Every comparison is
+ * made between forks run back to back and reported as the median and range
+ * over all fork pairs; a range that spans zero means no difference was found.
+ * <p>
+ * Not a unit test; run it after {@code mvn test-compile}. To compare with the
+ * build before position tracking, compile that commit's main classes first:
+ * <pre>
+ * git worktree add ../unity-before &lt;commit&gt;
+ * mvn -f ../unity-before/pom.xml compile
+ * java -cp target/classes:target/test-classes:&lt;org.json jar&gt; com.metamadbooks.unity.PositionTrackingBenchmark \
+ *     [--baseline ../unity-before/target/classes] [--forks 10] [items]
+ * </pre>
+ */
+public class PositionTrackingBenchmark {
+
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURED_ROUNDS = 15;
+    private static final int DEFAULT_FORKS = 6;
+    private static final int DEFAULT_ITEMS = 200_000;
+
+    public static void main(String[] args) throws Exception {
+        int items = DEFAULT_ITEMS;
+        int forks = DEFAULT_FORKS;
+        String baseline = null;
+        boolean worker = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--worker" -> worker = true;
+                case "--forks" -> forks = Integer.parseInt(args[++i]);
+                case "--baseline" -> baseline = args[++i];
+                default -> items = Integer.parseInt(args[i]);
+            }
+        }
+        if (worker) {
+            long[] medians = measure(items);
+            System.out.println(medians[0] + " " + medians[1]);
+            return;
+        }
+
+        byte[] document = generate(items).getBytes(StandardCharsets.UTF_8);
+        long lines = document.length - new String(document, StandardCharsets.UTF_8).replace("\n", "").length() + 1;
+        System.out.printf("Document: %,d bytes, %,d lines; %d forks of %d rounds%n",
+                document.length, lines, forks, MEASURED_ROUNDS);
+
+        String classpath = System.getProperty("java.class.path");
+        long[][] current = new long[forks][];
+        long[][] before = baseline == null ? null : new long[forks][];
+        for (int f = 0; f < forks; f++) {
+            current[f] = fork(classpath, items);
+            if (before != null) {
+                before[f] = fork(baseline + File.pathSeparator + classpath, items);
+            }
+            System.out.print('.');
+        }
+        System.out.println();
+
+        report("Current", document.length, current);
+        if (before != null) {
+            report("Before", document.length, before);
+        }
+        System.out.println();
+        compare("Line counting (current, with vs without newlines)", column(current, 0), column(current, 1));
+        if (before != null) {
+            compare("Position tracking (with newlines, current vs before)", column(current, 0), column(before, 0));
+            compare("Position tracking (without newlines, current vs before)", column(current, 1), column(before, 1));
+        }
+    }
+
+    /**
+     * Validates the document with and without newlines in this JVM.
+     *
+     * @return the median validation time of each, in nanoseconds
+     */
+    private static long[] measure(int items) throws ReflectiveOperationException {
+        byte[] multiLine = generate(items).getBytes(StandardCharsets.UTF_8);
+        byte[] singleLine = multiLine.clone();
+        for (int i = 0; i < singleLine.length; i++) {
+            if (singleLine[i] == '\n') {
+                singleLine[i] = ' ';
+            }
+        }
+        // Looked up by name: parseDocument returns void in builds before position tracking
+        Method parseDocument = UnityStreamParser.class.getDeclaredMethod("parseDocument");
+
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            validate(parseDocument, multiLine);
+            validate(parseDocument, singleLine);
+        }
+        long[] multiLineTimes = new long[MEASURED_ROUNDS];
+        long[] singleLineTimes = new long[MEASURED_ROUNDS];
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            // Alternate so that drift affects both inputs alike
+            multiLineTimes[i] = validate(parseDocument, multiLine);
+            singleLineTimes[i] = validate(parseDocument, singleLine);
+        }
+        return new long[] {median(multiLineTimes), median(singleLineTimes)};
+    }
+
+    private static long validate(Method parseDocument, byte[] input) throws ReflectiveOperationException {
+        ValidationResult result = new ValidationResult();
+        long start = System.nanoTime();
+        parseDocument.invoke(new UnityStreamParser(new ByteArrayInputStream(input), new UnityHandler() {
+        }, result));
+        long elapsed = System.nanoTime() - start;
+        if (!result.isValid()) {
+            throw new IllegalStateException(result.toString());
+        }
+        return elapsed;
+    }
+
+    /**
+     * Runs {@link #measure} in a new JVM with the given classpath.
+     */
+    private static long[] fork(String classpath, int items) throws IOException, InterruptedException {
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        Process process = new ProcessBuilder(java, "-cp", classpath, PositionTrackingBenchmark.class.getName(),
+                "--worker", String.valueOf(items))
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        String output;
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            output = reader.readLine();
+        }
+        if (process.waitFor() != 0 || output == null) {
+            throw new IllegalStateException("Benchmark fork failed with exit code " + process.exitValue());
+        }
+        String[] medians = output.trim().split(" ");
+        return new long[] {Long.parseLong(medians[0]), Long.parseLong(medians[1])};
+    }
+
+    private static String generate(int items) {
+        StringBuilder sb = new StringBuilder("[\"catalog\", {\"version\": 3}");
+        for (int i = 0; i < items; i++) {
+            sb.append(",\n  [\"item\", {\"id\": \"").append(i).append("\", \"available\": ").append(i % 3 != 0)
+                    .append("},\n    [\"name\", \"Item number ").append(i).append("\"],")
+                    .append("\n    [\"price\", ").append(i % 100).append('.').append(i % 7).append("5],")
+                    .append("\n    \"Mixed content for item ").append(i).append("\"\n  ]");
+        }
+        return sb.append("\n]\n").toString();
+    }
+
+    private static long[] column(long[][] results, int input) {
+        return Arrays.stream(results).mapToLong(fork -> fork[input]).toArray();
+    }
+
+    private static long median(long[] times) {
+        long[] sorted = times.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static void report(String label, int bytes, long[][] results) {
+        System.out.printf("%-8s with newlines %8.2f ms %7.1f MB/s   without newlines %8.2f ms %7.1f MB/s%n", label,
+                median(column(results, 0)) / 1e6, throughput(bytes, median(column(results, 0))),
+                median(column(results, 1)) / 1e6, throughput(bytes, median(column(results, 1))));
+    }
+
+    private static double throughput(int bytes, long nanos) {
+        return bytes / 1e6 / (nanos / 1e9);
+    }
+
+    /**
+     * Prints the relative difference of each fork pair: median and range.
+     */
+    private static void compare(String label, long[] times, long[] reference) {
+        List<Double> differences = new ArrayList<>();
+        for (int i = 0; i < times.length; i++) {
+            differences.add(100.0 * (times[i] - reference[i]) / reference[i]);
+        }
+        differences.sort(null);
+        System.out.printf("%-56s %+6.2f%%  (range %+.2f%% to %+.2f%%)%n", label,
+                differences.get(differences.size() / 2), differences.get(0), differences.get(differences.size() - 1));
+    }
+}
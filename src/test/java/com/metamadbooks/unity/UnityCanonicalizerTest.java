@@ -0,0 +1,226 @@
+package com.metamadbooks.unity;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UnityCanonicalizerTest {
+
+    private UnityCanonicalizer canonicalizer;
+
+    @BeforeEach
+    void setUp() {
+        canonicalizer = new UnityCanonicalizer();
+    }
+
+    private String canonicalize(String json) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ValidationResult result = canonicalizer.canonicalize(input(json), out);
+        assertTrue(result.isValid(), result.toString());
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    private static InputStream input(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private List<UnityCanonicalizer.SubtreeHash> hashes(String json) throws IOException {
+        List<UnityCanonicalizer.SubtreeHash> hashes = new ArrayList<>();
+        ValidationResult result = canonicalizer.canonicalize(input(json), OutputStream.nullOutputStream(),
+                hashes::add);
+        assertTrue(result.isValid(), result.toString());
+        return hashes;
+    }
+
+    /** Returns the head hash of each production as hex, by ordinal. */
+    private static List<String> heads(String json) {
+        List<String> heads = new ArrayList<>();
+        ValidationResult result = new ValidationResult();
+        new UnityStreamParser(input(json), UnityCanonicalizer.headHasher((hash, ordinal) -> {
+            while (heads.size() <= ordinal) {
+                heads.add(null);
+            }
+            heads.set(ordinal, HexFormat.of().formatHex(hash));
+        }), result).parseDocument();
+        assertTrue(result.isValid(), result.toString());
+        return heads;
+    }
+
+    @Nested
+    @DisplayName("Canonical form tests")
+    class CanonicalFormTests {
+
+        @Test
+        @DisplayName("Whitespace outside strings is removed")
+        void whitespaceRemoved() throws IOException {
+            assertEquals("[\"x\",\" a b \",[\"y\"]]", canonicalize(" [ \"x\" ,\n\t\" a b \" , [\"y\"] ] \n"));
+        }
+
+        @Test
+        @DisplayName("Attributes are sorted by name")
+        void attributesSorted() throws IOException {
+            assertEquals("[\"x\",{\"a\":1,\"b\":\"2\",\"c\":true}]",
+                    canonicalize("[\"x\", {\"c\": true, \"a\": 1, \"b\": \"2\"}]"));
+        }
+
+        @Test
+        @DisplayName("Empty attributes object is omitted")
+        void emptyAttributesOmitted() throws IOException {
+            assertEquals("[\"x\",\"text\"]", canonicalize("[\"x\", {}, \"text\"]"));
+        }
+
+        @Test
+        @DisplayName("Strings are escaped minimally")
+        void stringsEscapedMinimally() throws IOException {
+            assertEquals("[\"x\",\"é\\\"\\\\\\n\\u0001/\"]", canonicalize("[\"x\", \"\\u00e9\\\"\\\\\\n\\u0001\\/\"]"));
+        }
+
+        @Test
+        @DisplayName("Literals are preserved")
+        void literalsPreserved() throws IOException {
+            assertEquals("[\"x\",true,false,null]", canonicalize("[\"x\", true, false, null]"));
+        }
+
+        @Test
+        @DisplayName("Canonical form is valid Unity markup")
+        void canonicalFormIsValid() throws IOException {
+            String canonical = canonicalize("[\"menu\", {\"b\": 1.0, \"a\": \"z\"}, [\"food\", \"x\"], 2e3]");
+            assertTrue(new UnityValidator().validate(canonical).isValid());
+            assertEquals(canonical, canonicalize(canonical));
+        }
+
+        @Test
+        @DisplayName("Invalid documents are reported")
+        void invalidDocument() throws IOException {
+            ValidationResult result = canonicalizer.canonicalize(input("[\"x\", {\"a\": [1]}]"),
+                    new ByteArrayOutputStream());
+            assertFalse(result.isValid());
+        }
+    }
+
+    @Nested
+    @DisplayName("Number formatting tests")
+    class NumberTests {
+
+        private String format(String number) {
+            return UnityCanonicalizer.formatNumber(new BigDecimal(number));
+        }
+
+        @Test
+        @DisplayName("Integers are written without exponent or fraction")
+        void integers() {
+            assertEquals("650", format("650"));
+            assertEquals("650", format("650.00"));
+            assertEquals("650", format("6.5E2"));
+            assertEquals("-42", format("-42"));
+            assertEquals("0", format("-0.0"));
+            assertEquals("100000000000000000000", format("1e20"));
+        }
+
+        @Test
+        @DisplayName("Fractions drop trailing zeros")
+        void fractions() {
+            assertEquals("5.95", format("5.950"));
+            assertEquals("0.001", format("1e-3"));
+            assertEquals("0.000001", format("1e-6"));
+        }
+
+        @Test
+        @DisplayName("Very large and very small numbers use exponent notation")
+        void exponents() {
+            assertEquals("1e+21", format("1e21"));
+            assertEquals("1.5e-7", format("0.00000015"));
+            assertEquals("1.2345e+400", format("12345e396"));
+        }
+
+        @Test
+        @DisplayName("Significant digits are never lost")
+        void precisionKept() {
+            assertEquals("0.1000000000000000055511151231257827", format("0.1000000000000000055511151231257827"));
+            assertEquals("12345678901234567890", format("12345678901234567890"));
+        }
+    }
+
+    @Nested
+    @DisplayName("Subtree hash tests")
+    class HashTests {
+
+        @Test
+        @DisplayName("Every production is hashed, children before parents")
+        void everyProductionHashed() throws IOException {
+            List<UnityCanonicalizer.SubtreeHash> hashes = hashes("[\"a\", [\"b\", [\"c\"]], [\"d\"]]");
+
+            assertEquals(List.of("c", "b", "d", "a"), hashes.stream().map(UnityCanonicalizer.SubtreeHash::name).toList());
+            assertEquals(List.of(2, 1, 3, 0), hashes.stream().map(UnityCanonicalizer.SubtreeHash::ordinal).toList());
+            assertEquals(List.of(2, 1, 1, 0), hashes.stream().map(UnityCanonicalizer.SubtreeHash::depth).toList());
+            assertEquals(32, hashes.get(0).hash().length);
+        }
+
+        @Test
+        @DisplayName("Offsets refer to the input")
+        void offsets() throws IOException {
+            String json = "[\"a\",  [\"b\"]  ]";
+            UnityCanonicalizer.SubtreeHash b = hashes(json).get(0);
+            assertEquals("[\"b\"]", json.substring((int) b.start(), (int) b.end()));
+        }
+
+        @Test
+        @DisplayName("Semantically identical documents have the same hash")
+        void identicalDocumentsSameHash() throws IOException {
+            byte[] first = canonicalizer.hash(input("[\"x\", {\"a\": 1.50, \"b\": \"y\"}, [\"z\", 1e2]]"));
+            byte[] second = canonicalizer.hash(input("[ \"x\", {\"b\":\"y\",\"a\":1.5},\n  [\"z\",100] ]"));
+            assertArrayEquals(first, second);
+        }
+
+        @Test
+        @DisplayName("Different documents have different hashes")
+        void differentDocumentsDifferentHash() throws IOException {
+            assertFalse(Arrays.equals(canonicalizer.hash(input("[\"x\", \"1\"]")),
+                    canonicalizer.hash(input("[\"x\", 1]"))));
+            assertFalse(Arrays.equals(canonicalizer.hash(input("[\"x\", [\"y\"], [\"z\"]]")),
+                    canonicalizer.hash(input("[\"x\", [\"z\"], [\"y\"]]"))));
+            assertFalse(Arrays.equals(canonicalizer.hash(input("[\"x\", \"a\", \"b\"]")),
+                    canonicalizer.hash(input("[\"x\", \"a,\\\"b\"]"))));
+        }
+
+        @Test
+        @DisplayName("Equal subtrees have equal hashes wherever they appear")
+        void equalSubtreesEqualHashes() throws IOException {
+            List<UnityCanonicalizer.SubtreeHash> hashes =
+                    hashes("[\"menu\", [\"food\", {\"id\": 1}, \"x\"], [\"drink\", [\"food\", {\"id\": 1.0}, \"x\"]]]");
+            assertEquals(hashes.get(0).hex(), hashes.get(1).hex());
+            assertNotEquals(hashes.get(0).hex(), hashes.get(2).hex());
+        }
+
+        @Test
+        @DisplayName("Head hashes cover attributes and text positions but not children")
+        void headHashes() {
+            String head = heads("[\"x\", {\"a\": 1}, \"t\", [\"c\"]]").get(0);
+            assertEquals(head, heads("[\"x\", {\"a\": 1.0}, \"t\", [\"d\", \"u\"], [\"e\"]]").get(0));
+            assertNotEquals(head, heads("[\"x\", {\"a\": 2}, \"t\", [\"c\"]]").get(0));
+            assertNotEquals(head, heads("[\"x\", {\"a\": 1}, [\"c\"], \"t\"]").get(0));
+            assertNotEquals(heads("[\"x\", {}, [\"c\"]]").get(0), heads("[\"x\", [\"c\"]]").get(0));
+        }
+
+        @Test
+        @DisplayName("Hash of an invalid document is rejected")
+        void invalidDocumentHash() {
+            assertThrows(IllegalArgumentException.class, () -> canonicalizer.hash(input("[]")));
+        }
+    }
+}
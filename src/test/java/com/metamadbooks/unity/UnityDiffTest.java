@@ -0,0 +1,358 @@
+package com.metamadbooks.unity;
+
+import org.json.JSONArray;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UnityDiffTest {
+
+    private static final String MENU = """
+        ["breakfast_menu", {"currency": "USD"},
+          ["food", {"id": "001"},
+            ["name", "Belgian Waffles"],
+            ["price", 5.95]
+          ],
+          ["food", {"id": "002"},
+            ["name", "French Toast"],
+            ["price", 4.50]
+          ],
+          "Served daily"
+        ]
+        """;
+
+    @TempDir
+    Path tempDir;
+
+    private UnityIndexer indexer;
+    private UnityDiff differ;
+
+    @BeforeEach
+    void setUp() {
+        indexer = new UnityIndexer(Set.of(), true);
+        differ = new UnityDiff();
+    }
+
+    private List<UnityEdit> diff(String before, String after) throws IOException {
+        return diff(differ, before, after);
+    }
+
+    private List<UnityEdit> diff(UnityDiff differ, String before, String after) throws IOException {
+        Path oldFile = tempDir.resolve("old.json");
+        Path newFile = tempDir.resolve("new.json");
+        Files.writeString(oldFile, before);
+        Files.writeString(newFile, after);
+        assertTrue(indexer.index(oldFile).isValid());
+        assertTrue(indexer.index(newFile).isValid());
+        try (UnityIndexedReader oldReader = new UnityIndexedReader(oldFile);
+             UnityIndexedReader newReader = new UnityIndexedReader(newFile)) {
+            return differ.diff(oldReader, newReader);
+        }
+    }
+
+    private static UnityEdit edit(UnityEdit.Kind kind, String path, Object before, Object after) {
+        return new UnityEdit(kind, path, before, after);
+    }
+
+    @Nested
+    @DisplayName("Unchanged document tests")
+    class UnchangedTests {
+
+        @Test
+        @DisplayName("Identical documents have no edits")
+        void identicalDocuments() throws IOException {
+            assertEquals(List.of(), diff(MENU, MENU));
+        }
+
+        @Test
+        @DisplayName("Formatting differences are not edits")
+        void formattingIgnored() throws IOException {
+            String reformatted = "[\"breakfast_menu\",{\"currency\":\"USD\"},"
+                    + "[\"food\",{\"id\":\"001\"},[\"name\",\"Belgian Waffles\"],[\"price\",5.950]],"
+                    + "[\"food\",{\"id\":\"002\"},[\"name\",\"French Toast\"],[\"price\",4.5]],\"Served daily\"]";
+            assertEquals(List.of(), diff(MENU, reformatted));
+        }
+    }
+
+    @Nested
+    @DisplayName("Edit tests")
+    class EditTests {
+
+        @Test
+        @DisplayName("Changed text is reported at its path")
+        void textChange() throws IOException {
+            String after = MENU.replace("French Toast", "Pain Perdu");
+            assertEquals(List.of(edit(UnityEdit.Kind.TEXT, "[3][2][1]", "French Toast", "Pain Perdu")),
+                    diff(MENU, after));
+        }
+
+        @Test
+        @DisplayName("Changed number is reported with both values")
+        void numberChange() throws IOException {
+            List<UnityEdit> edits = diff(MENU, MENU.replace("4.50", "4.75"));
+            assertEquals(1, edits.size());
+            assertEquals("[3][3][1]", edits.get(0).path());
+            assertEquals(new BigDecimal("4.50"), edits.get(0).before());
+            assertEquals(new BigDecimal("4.75"), edits.get(0).after());
+        }
+
+        @Test
+        @DisplayName("Changed, added and removed attributes are reported")
+        void attributeChanges() throws IOException {
+            String before = "[\"x\", {\"a\": 1, \"b\": 2}]";
+            String after = "[\"x\", {\"b\": 3, \"c\": 4}]";
+            assertEquals(List.of(
+                    edit(UnityEdit.Kind.ATTRIBUTE, "[1].a", BigDecimal.ONE, null),
+                    edit(UnityEdit.Kind.ATTRIBUTE, "[1].b", new BigDecimal(2), new BigDecimal(3)),
+                    edit(UnityEdit.Kind.ATTRIBUTE, "[1].c", null, new BigDecimal(4))),
+                    diff(before, after));
+        }
+
+        @Test
+        @DisplayName("Inserted production is reported with its content")
+        void insert() throws IOException {
+            String after = MENU.replace("\"Served daily\"",
+                    "[\"food\", {\"id\": \"003\"}, [\"name\", \"Pancakes\"]],\n  \"Served daily\"");
+            List<UnityEdit> edits = diff(MENU, after);
+
+            assertEquals(1, edits.size());
+            assertEquals(UnityEdit.Kind.INSERT, edits.get(0).kind());
+            assertEquals("[4]", edits.get(0).path());
+            assertEquals("003", ((JSONArray) edits.get(0).after()).getJSONObject(1).getString("id"));
+        }
+
+        @Test
+        @DisplayName("Deleted production is reported at its old path")
+        void delete() throws IOException {
+            String after = """
+                ["breakfast_menu", {"currency": "USD"},
+                  ["food", {"id": "002"},
+                    ["name", "French Toast"],
+                    ["price", 4.50]
+                  ],
+                  "Served daily"
+                ]
+                """;
+            assertEquals(List.of(edit(UnityEdit.Kind.DELETE, "[2]", null, null)), diff(MENU, after));
+        }
+
+        @Test
+        @DisplayName("Children are matched by key attribute")
+        void matchedByKey() throws IOException {
+            String before = "[\"list\", [\"item\", {\"id\": 1}, \"a\"], [\"item\", {\"id\": 2}, \"b\"]]";
+            String after = "[\"list\", [\"item\", {\"id\": 2}, \"B\"], [\"item\", {\"id\": 1}, \"A\"]]";
+            assertEquals(List.of(
+                    edit(UnityEdit.Kind.MOVE, "[1]", "[2]", null),
+                    edit(UnityEdit.Kind.TEXT, "[1][2]", "b", "B"),
+                    edit(UnityEdit.Kind.TEXT, "[2][2]", "a", "A")),
+                    diff(before, after));
+        }
+
+        @Test
+        @DisplayName("Children with different keys are replaced")
+        void differentKeysReplaced() throws IOException {
+            String before = "[\"list\", [\"item\", {\"id\": 1}, \"a\"]]";
+            String after = "[\"list\", [\"item\", {\"id\": 2}, \"a\"]]";
+            List<UnityEdit> edits = diff(before, after);
+            assertEquals(2, edits.size());
+            assertEquals(UnityEdit.Kind.DELETE, edits.get(0).kind());
+            assertEquals(UnityEdit.Kind.INSERT, edits.get(1).kind());
+        }
+
+        @Test
+        @DisplayName("Key attributes are configurable")
+        void configurableKeys() throws IOException {
+            String before = "[\"list\", [\"item\", {\"id\": 1, \"sku\": \"x\"}, \"a\"]]";
+            String after = "[\"list\", [\"item\", {\"id\": 2, \"sku\": \"x\"}, \"a\"]]";
+            assertEquals(List.of(edit(UnityEdit.Kind.ATTRIBUTE, "[1][1].id", BigDecimal.ONE, new BigDecimal(2))),
+                    diff(new UnityDiff(Set.of("sku")), before, after));
+        }
+
+        @Test
+        @DisplayName("Moved identical children are reported as moves")
+        void movedChildren() throws IOException {
+            String before = "[\"list\", [\"a\"], [\"b\"], [\"c\"]]";
+            String after = "[\"list\", [\"c\"], [\"a\"], [\"b\"]]";
+            assertEquals(List.of(edit(UnityEdit.Kind.MOVE, "[1]", "[3]", null)), diff(before, after));
+        }
+
+        @Test
+        @DisplayName("Swapped children are reported as a single move")
+        void swappedChildren() throws IOException {
+            assertEquals(List.of(edit(UnityEdit.Kind.MOVE, "[1]", "[2]", null)),
+                    diff("[\"r\", [\"a\"], [\"b\"]]", "[\"r\", [\"b\"], [\"a\"]]"));
+        }
+
+        @Test
+        @DisplayName("Text moved past an unchanged child is reported as a move of the text")
+        void textMovedPastChild() throws IOException {
+            assertEquals(List.of(edit(UnityEdit.Kind.MOVE, "[2]", "[1]", null)),
+                    diff("[\"r\", \"x\", [\"a\"]]", "[\"r\", [\"a\"], \"x\"]"));
+        }
+
+        @Test
+        @DisplayName("Items shifted by an insert are not moves")
+        void shiftedByInsert() throws IOException {
+            List<UnityEdit> edits = diff("[\"r\", [\"a\"], \"x\", [\"b\"]]",
+                    "[\"r\", [\"new\"], [\"a\"], \"x\", [\"b\"]]");
+            assertEquals(1, edits.size());
+            assertEquals(UnityEdit.Kind.INSERT, edits.get(0).kind());
+            assertEquals("[1]", edits.get(0).path());
+        }
+
+        @Test
+        @DisplayName("Added and removed text items are reported as inserts and deletes")
+        void textAddedAndRemoved() throws IOException {
+            assertEquals(List.of(edit(UnityEdit.Kind.INSERT, "[2]", null, "b")),
+                    diff("[\"x\", \"a\"]", "[\"x\", \"a\", \"b\"]"));
+            assertEquals(List.of(edit(UnityEdit.Kind.DELETE, "[2]", "b", null)),
+                    diff("[\"x\", \"a\", \"b\"]", "[\"x\", \"a\"]"));
+        }
+
+        @Test
+        @DisplayName("Removing the first of two texts is a single delete")
+        void firstTextRemoved() throws IOException {
+            assertEquals(List.of(edit(UnityEdit.Kind.DELETE, "[1]", "a", null)),
+                    diff("[\"r\", \"a\", \"b\"]", "[\"r\", \"b\"]"));
+        }
+
+        @Test
+        @DisplayName("Texts are paired by value before order")
+        void textsPairedByValue() throws IOException {
+            assertEquals(List.of(
+                    edit(UnityEdit.Kind.MOVE, "[1]", "[2]", null),
+                    edit(UnityEdit.Kind.INSERT, "[3]", null, "c")),
+                    diff("[\"r\", \"a\", \"b\"]", "[\"r\", \"b\", \"a\", \"c\"]"));
+        }
+
+        @Test
+        @DisplayName("A changed text is not paired with an equal text elsewhere")
+        void changedTextWithDuplicate() throws IOException {
+            assertEquals(List.of(edit(UnityEdit.Kind.TEXT, "[1]", "a", "x")),
+                    diff("[\"r\", \"a\", \"b\", \"a\", [\"c\"], \"d\"]",
+                            "[\"r\", \"x\", \"b\", \"a\", [\"c\"], \"d\"]"));
+        }
+
+        @Test
+        @DisplayName("Texts without an equal partner are paired in order")
+        void unequalTextsPairedInOrder() throws IOException {
+            assertEquals(List.of(
+                    edit(UnityEdit.Kind.TEXT, "[1]", "a", "A"),
+                    edit(UnityEdit.Kind.TEXT, "[3]", "c", "C")),
+                    diff("[\"r\", \"a\", \"b\", \"c\"]", "[\"r\", \"A\", \"b\", \"C\"]"));
+        }
+
+        @Test
+        @DisplayName("Removed text after an inserted child is addressed by its old path")
+        void textRemovedAfterInsert() throws IOException {
+            List<UnityEdit> edits = diff("[\"x\", \"a\", \"b\"]", "[\"x\", [\"c\"], \"a\"]");
+
+            assertEquals(2, edits.size());
+            assertEquals(edit(UnityEdit.Kind.DELETE, "[2]", "b", null), edits.get(0));
+            assertEquals(UnityEdit.Kind.INSERT, edits.get(1).kind());
+            assertEquals("[1]", edits.get(1).path());
+        }
+
+        @Test
+        @DisplayName("Deletes inside a shifted production are addressed by their old path")
+        void nestedDeleteAfterShift() throws IOException {
+            assertEquals(List.of(
+                    edit(UnityEdit.Kind.INSERT, "[1]", null, "t"),
+                    edit(UnityEdit.Kind.DELETE, "[1][1]", null, null)),
+                    diff("[\"r\", [\"a\", [\"x\"], [\"y\"]]]", "[\"r\", \"t\", [\"a\", [\"y\"]]]"));
+        }
+
+        @Test
+        @DisplayName("Moves inside a moved production are addressed by their old path")
+        void nestedMoveAfterShift() throws IOException {
+            assertEquals(List.of(
+                    edit(UnityEdit.Kind.MOVE, "[1]", "[2]", null),
+                    edit(UnityEdit.Kind.MOVE, "[2][1]", "[1][2]", null),
+                    edit(UnityEdit.Kind.INSERT, "[2][3]", null, "z")),
+                    diff("[\"r\", [\"a\", [\"p\"], [\"q\"]], [\"b\"]]",
+                            "[\"r\", [\"b\"], [\"a\", [\"q\"], [\"p\"], \"z\"]]"));
+        }
+
+        @Test
+        @DisplayName("Changes inside a shifted production use new paths, deletes old ones")
+        void nestedChangesAfterShift() throws IOException {
+            assertEquals(List.of(
+                    edit(UnityEdit.Kind.INSERT, "[1]", null, "t"),
+                    edit(UnityEdit.Kind.ATTRIBUTE, "[2][1].k", null, "v"),
+                    edit(UnityEdit.Kind.DELETE, "[1][2]", "old", null),
+                    edit(UnityEdit.Kind.TEXT, "[2][2][1]", "m", "n")),
+                    diff("[\"r\", [\"a\", [\"m\", \"m\"], \"old\"]]",
+                            "[\"r\", \"t\", [\"a\", {\"k\": \"v\"}, [\"m\", \"n\"]]]"));
+        }
+
+        @Test
+        @DisplayName("Children swapped around unchanged text are both moves")
+        void childrenSwappedAroundText() throws IOException {
+            assertEquals(List.of(edit(UnityEdit.Kind.MOVE, "[1]", "[3]", null),
+                            edit(UnityEdit.Kind.MOVE, "[3]", "[1]", null)),
+                    diff("[\"r\", [\"a\"], \"t\", [\"b\"]]", "[\"r\", [\"b\"], \"t\", [\"a\"]]"));
+        }
+
+        @Test
+        @DisplayName("Unchanged text crossed by shifted children is a move")
+        void textCrossedByShiftedChildren() throws IOException {
+            assertEquals("[INSERT [2]: [\"x\"], MOVE [3] -> [3]]",
+                    diff("[\"r\", [\"a\"], [\"b\"], \"t\", [\"c\"]]",
+                            "[\"r\", [\"a\"], [\"x\"], \"t\", [\"b\"], [\"c\"]]").toString());
+        }
+
+        @Test
+        @DisplayName("Inserted child before unchanged text is an insert")
+        void insertBeforeText() throws IOException {
+            assertEquals("[INSERT [2]: [\"x\"]]",
+                    diff("[\"r\", {\"k\": 1}, \"t\", [\"a\"]]",
+                            "[\"r\", {\"k\": 1}, [\"x\"], \"t\", [\"a\"]]").toString());
+        }
+
+        @Test
+        @DisplayName("Renamed root replaces the document")
+        void renamedRoot() throws IOException {
+            List<UnityEdit> edits = diff("[\"x\"]", "[\"y\"]");
+            assertEquals(UnityEdit.Kind.DELETE, edits.get(0).kind());
+            assertEquals("", edits.get(1).path());
+        }
+
+        @Test
+        @DisplayName("A single change in a large catalog is found")
+        void largeCatalog() throws IOException {
+            StringBuilder before = new StringBuilder("[\"catalog\"");
+            for (int i = 0; i < 5000; i++) {
+                before.append(",\n  [\"item\", {\"id\": ").append(i).append("}, [\"price\", ").append(i).append(".00]]");
+            }
+            before.append("]");
+            String after = before.toString().replace("{\"id\": 4321}, [\"price\", 4321.00]",
+                    "{\"id\": 4321}, [\"price\", 4321.50]");
+
+            assertEquals(List.of(edit(UnityEdit.Kind.TEXT, "[4322][2][1]",
+                            new BigDecimal("4321.00"), new BigDecimal("4321.50"))),
+                    diff(before.toString(), after));
+        }
+    }
+
+    @Test
+    @DisplayName("Indexes without hashes are rejected")
+    void indexWithoutHashes() throws IOException {
+        Path file = tempDir.resolve("menu.json");
+        Files.writeString(file, MENU);
+        new UnityIndexer().index(file);
+        try (UnityIndexedReader reader = new UnityIndexedReader(file)) {
+            assertThrows(IllegalStateException.class, () -> differ.diff(reader, reader));
+        }
+    }
+}
@@ -0,0 +1,426 @@
+package com.metamadbooks.unity;
+
+import org.json.JSONArray;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UnityIndexerTest {
+
+    private static final String MENU = """
+        ["breakfast_menu",
+          ["food", {"id": "001"},
+            ["name", "Belgian Waffles"],
+            ["price", "$5.95"],
+            ["calories", 650]
+          ],
+          ["food", {"id": "002"},
+            ["name", "French Toast"],
+            ["price", "$4.50"],
+            ["calories", 600]
+          ],
+          "Served daily"
+        ]
+        """;
+
+    @TempDir
+    Path tempDir;
+
+    private Path source;
+    private UnityIndexer indexer;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        source = tempDir.resolve("menu.json");
+        Files.writeString(source, MENU);
+        indexer = new UnityIndexer(Set.of("id"));
+    }
+
+    @Nested
+    @DisplayName("Indexing tests")
+    class IndexingTests {
+
+        @Test
+        @DisplayName("Valid file is indexed to the default sidecar")
+        void validFileIsIndexed() throws IOException {
+            ValidationResult result = indexer.index(source);
+            assertTrue(result.isValid(), result.toString());
+            assertTrue(Files.exists(tempDir.resolve("menu.json.uidx")));
+        }
+
+        @Test
+        @DisplayName("Productions are recorded in document order")
+        void productionsInDocumentOrder() throws IOException {
+            indexer.index(source);
+            UnityIndex index = UnityIndex.read(UnityIndex.sidecarFor(source));
+
+            assertEquals(9, index.size());
+            assertEquals("breakfast_menu", index.entry(0).name());
+            assertEquals("food", index.entry(1).name());
+            assertEquals("name", index.entry(2).name());
+            assertEquals("food", index.entry(5).name());
+        }
+
+        @Test
+        @DisplayName("Entries record depth, position and extent")
+        void entryFields() throws IOException {
+            indexer.index(source);
+            UnityIndex index = UnityIndex.read(UnityIndex.sidecarFor(source));
+
+            UnityIndex.Entry root = index.entry(0);
+            assertEquals(0, root.depth());
+            assertEquals(0, root.start());
+            assertEquals(MENU.lastIndexOf(']') + 1, root.end());
+            assertEquals(8, root.descendants());
+
+            UnityIndex.Entry food = index.entry(5);
+            assertEquals(1, food.depth());
+            assertEquals(2, food.index());
+            assertEquals(3, food.descendants());
+
+            UnityIndex.Entry price = index.entry(3);
+            assertEquals(2, price.depth());
+            assertEquals(3, price.index());
+            assertEquals("[\"price\", \"$5.95\"]", MENU.substring((int) price.start(), (int) price.end()));
+        }
+
+        @Test
+        @DisplayName("Invalid file is reported and no sidecar is written")
+        void invalidFileIsNotIndexed() throws IOException {
+            Files.writeString(source, "[\"menu\", [\"1food\"], {\"not\": \"allowed\"}]");
+            ValidationResult result = indexer.index(source);
+
+            assertFalse(result.isValid());
+            assertEquals(2, result.getErrors().size());
+            assertEquals("[1][0]", result.getErrors().get(0).path());
+            assertEquals("[2]", result.getErrors().get(1).path());
+            assertFalse(Files.exists(UnityIndex.sidecarFor(source)));
+        }
+
+        @Test
+        @DisplayName("Reindexing an invalid file removes the old sidecar")
+        void invalidFileRemovesSidecar() throws IOException {
+            indexer.index(source);
+            Files.writeString(source, "[\"menu\", [\"1food\"]]");
+
+            assertFalse(indexer.index(source).isValid());
+            assertFalse(Files.exists(UnityIndex.sidecarFor(source)));
+        }
+
+        @Test
+        @DisplayName("Malformed JSON is reported as invalid JSON")
+        void malformedJsonIsReported() throws IOException {
+            Files.writeString(source, "[\"menu\", [\"food\"");
+            ValidationResult result = indexer.index(source);
+
+            assertFalse(result.isValid());
+            assertTrue(result.getErrors().get(0).message().startsWith("Invalid JSON"));
+        }
+
+        @Test
+        @DisplayName("Number with an out-of-range exponent is reported as invalid JSON")
+        void exponentOverflowIsReported() throws IOException {
+            Files.writeString(source, "[\"menu\", {\"size\": 1e-9999999999}, 1e9999999999]");
+            ValidationResult result = indexer.index(source);
+
+            assertFalse(result.isValid());
+            assertEquals(1, result.getErrors().size());
+            assertTrue(result.getErrors().get(0).message().startsWith("Invalid JSON: Invalid number"));
+            assertEquals(18, result.getErrors().get(0).offset());
+            assertFalse(Files.exists(UnityIndex.sidecarFor(source)));
+        }
+
+        @Test
+        @DisplayName("Nesting deeper than the stack allows is reported as invalid JSON")
+        void deepNestingIsReported() throws IOException {
+            int depth = 200_000;
+            Files.writeString(source, "[\"x\",".repeat(depth) + "]".repeat(depth));
+            ValidationResult result = indexer.index(source);
+
+            assertFalse(result.isValid());
+            assertEquals("Invalid JSON: Nesting too deep", result.getErrors().get(0).message());
+        }
+
+        @Test
+        @DisplayName("Index survives a write and read round trip")
+        void roundTrip() throws IOException {
+            ValidationResult result = new ValidationResult();
+            byte[] bytes = MENU.getBytes(StandardCharsets.UTF_8);
+            UnityIndex index = indexer.build(new ByteArrayInputStream(bytes), bytes.length, 1_700_000_000_000L,
+                    1_700_000_005_000L, result);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            index.write(out);
+            UnityIndex copy = UnityIndex.read(new ByteArrayInputStream(out.toByteArray()));
+
+            assertEquals(index.sourceLength(), copy.sourceLength());
+            assertEquals(1_700_000_000_000L, copy.sourceModified());
+            assertEquals(1_700_000_005_000L, copy.sourceChecked());
+            assertEquals(index.sourceChecksum(), copy.sourceChecksum());
+            assertEquals(index.size(), copy.size());
+            for (int i = 0; i < index.size(); i++) {
+                assertEquals(index.entry(i), copy.entry(i));
+            }
+            assertEquals(Set.of("id"), copy.indexedAttributes());
+            assertEquals(List.of(index.entry(5)), copy.findByAttribute("id", "002"));
+        }
+
+        @Test
+        @DisplayName("Sidecar is smaller than the fixed-width encoding")
+        void sidecarIsCompact() throws IOException {
+            StringBuilder menu = new StringBuilder("[\"menu\"");
+            for (int i = 0; i < 1000; i++) {
+                menu.append(",\n  [\"food\", {\"id\": \"").append(i).append("\"}, [\"price\", ").append(i).append("]]");
+            }
+            Files.writeString(source, menu.append("]").toString());
+            indexer.index(source);
+            UnityIndex index = UnityIndex.read(UnityIndex.sidecarFor(source));
+
+            // The entry table alone, with a long for each offset and an int for each other field
+            long fixedWidth = (long) index.size() * (2 * Long.BYTES + 4 * Integer.BYTES);
+            long size = Files.size(UnityIndex.sidecarFor(source));
+            assertTrue(size < fixedWidth, size + " >= " + fixedWidth);
+        }
+
+        @Test
+        @DisplayName("Subtree hashes match the canonicalizer")
+        void subtreeHashes() throws IOException {
+            new UnityIndexer(Set.of(), true).index(source);
+            UnityIndex index = UnityIndex.read(UnityIndex.sidecarFor(source));
+
+            List<UnityCanonicalizer.SubtreeHash> hashes = new ArrayList<>();
+            try (InputStream in = Files.newInputStream(source)) {
+                new UnityCanonicalizer().canonicalize(in, new ByteArrayOutputStream(), hashes::add);
+            }
+
+            assertTrue(index.hasHashes());
+            for (UnityCanonicalizer.SubtreeHash hash : hashes) {
+                assertArrayEquals(hash.hash(), index.hash(hash.ordinal()));
+            }
+        }
+
+        @Test
+        @DisplayName("Hashes are only available when requested")
+        void noHashesByDefault() throws IOException {
+            indexer.index(source);
+            UnityIndex index = UnityIndex.read(UnityIndex.sidecarFor(source));
+            assertFalse(index.hasHashes());
+            assertThrows(IllegalStateException.class, () -> index.hash(0));
+        }
+
+        @Test
+        @DisplayName("Reading something other than an index fails")
+        void notAnIndex() {
+            assertThrows(IOException.class, () -> UnityIndex.read(source));
+        }
+    }
+
+    @Nested
+    @DisplayName("Lookup tests")
+    class LookupTests {
+
+        private UnityIndex index;
+
+        @BeforeEach
+        void indexSource() throws IOException {
+            indexer.index(source);
+            index = UnityIndex.read(UnityIndex.sidecarFor(source));
+        }
+
+        @Test
+        @DisplayName("Nth production by name")
+        void findByName() {
+            assertEquals(5, index.find("food", 1).orElseThrow().ordinal());
+            assertEquals(6, index.find("name", 1).orElseThrow().ordinal());
+            assertTrue(index.find("food", 2).isEmpty());
+            assertTrue(index.find("drink", 0).isEmpty());
+        }
+
+        @Test
+        @DisplayName("Nth production by depth and name")
+        void findByDepthAndName() {
+            assertEquals(7, index.find(2, "price", 1).orElseThrow().ordinal());
+            assertTrue(index.find(1, "price", 0).isEmpty());
+        }
+
+        @Test
+        @DisplayName("All productions by name")
+        void findAllByName() {
+            assertEquals(List.of(1, 5), ordinals(index.findAll("food")));
+            assertEquals(List.of(0), ordinals(index.findAll("breakfast_menu")));
+            assertEquals(List.of(3, 7), ordinals(index.findAll("price")));
+            assertTrue(index.findAll("drink").isEmpty());
+        }
+
+        @Test
+        @DisplayName("Direct children of a production")
+        void children() {
+            assertEquals(List.of(1, 5), index.children(0).stream().map(UnityIndex.Entry::ordinal).toList());
+            assertEquals(List.of(6, 7, 8), index.children(5).stream().map(UnityIndex.Entry::ordinal).toList());
+            assertTrue(index.children(8).isEmpty());
+        }
+
+        @Test
+        @DisplayName("Productions by attribute value")
+        void findByAttribute() {
+            assertEquals(1, index.findByAttribute("id", "001").get(0).ordinal());
+            assertTrue(index.findByAttribute("id", "003").isEmpty());
+        }
+
+        @Test
+        @DisplayName("Numbers, booleans and null are found by their canonical form")
+        void findByNonStringAttribute() throws IOException {
+            Files.writeString(source, "[\"menu\", [\"food\", {\"id\": 1e3}], [\"food\", {\"id\": 1000.0}],"
+                    + " [\"food\", {\"id\": 5E-1}], [\"food\", {\"id\": true}], [\"food\", {\"id\": null}],"
+                    + " [\"food\", {\"id\": \"1e3\"}]]");
+            indexer.index(source);
+            index = UnityIndex.read(UnityIndex.sidecarFor(source));
+
+            assertEquals(List.of(1, 2), ordinals(index.findByAttribute("id", "1000")));
+            assertEquals(List.of(3), ordinals(index.findByAttribute("id", "0.5")));
+            assertEquals(List.of(4), ordinals(index.findByAttribute("id", "true")));
+            assertEquals(List.of(5), ordinals(index.findByAttribute("id", "null")));
+            assertEquals(List.of(6), ordinals(index.findByAttribute("id", "1e3")));
+            assertTrue(index.findByAttribute("id", "1E+3").isEmpty());
+        }
+
+        @Test
+        @DisplayName("Lookup by an attribute that was not indexed fails")
+        void attributeNotIndexed() {
+            assertThrows(IllegalArgumentException.class, () -> index.findByAttribute("name", "x"));
+        }
+    }
+
+    @Nested
+    @DisplayName("Reader tests")
+    class ReaderTests {
+
+        @BeforeEach
+        void indexSource() throws IOException {
+            indexer.index(source);
+        }
+
+        @Test
+        @DisplayName("Reads a subtree by name")
+        void readByName() throws IOException {
+            try (UnityIndexedReader reader = new UnityIndexedReader(source)) {
+                JSONArray food = reader.find("food", 1).orElseThrow();
+                assertEquals("food", food.getString(0));
+                assertEquals("002", food.getJSONObject(1).getString("id"));
+                assertEquals(600, food.getJSONArray(4).getInt(1));
+            }
+        }
+
+        @Test
+        @DisplayName("Reads a subtree by depth and name")
+        void readByDepthAndName() throws IOException {
+            try (UnityIndexedReader reader = new UnityIndexedReader(source)) {
+                JSONArray price = reader.find(2, "price", 0).orElseThrow();
+                assertEquals("$5.95", price.getString(1));
+            }
+        }
+
+        @Test
+        @DisplayName("Reads subtrees by attribute value")
+        void readByAttribute() throws IOException {
+            try (UnityIndexedReader reader = new UnityIndexedReader(source)) {
+                List<JSONArray> food = reader.findByAttribute("id", "001");
+                assertEquals(1, food.size());
+                assertEquals("Belgian Waffles", food.get(0).getJSONArray(2).getString(1));
+            }
+        }
+
+        @Test
+        @DisplayName("Reads non-ASCII content")
+        void readNonAscii() throws IOException {
+            Files.writeString(source, "[\"menu\", [\"food\", \"Crêpes\"], [\"food\", \"Café au lait\"]]");
+            indexer.index(source);
+            try (UnityIndexedReader reader = new UnityIndexedReader(source)) {
+                assertEquals("Café au lait", reader.find("food", 1).orElseThrow().getString(1));
+            }
+        }
+
+        @Test
+        @DisplayName("Index of a modified file is rejected")
+        void staleIndexIsRejected() throws IOException {
+            Files.writeString(source, MENU + " ");
+            assertThrows(IOException.class, () -> new UnityIndexedReader(source));
+        }
+
+        @Test
+        @DisplayName("Index of a file changed right after indexing is rejected")
+        void sameLengthChangeIsRejected() throws IOException {
+            Files.writeString(source, MENU.replace("001", "00X").replace("002", "001").replace("00X", "002"));
+            assertThrows(IOException.class, () -> new UnityIndexedReader(source));
+        }
+
+        @Test
+        @DisplayName("Index of a file changed long after indexing is rejected")
+        void laterSameLengthChangeIsRejected() throws IOException {
+            Files.setLastModifiedTime(source, FileTime.fromMillis(System.currentTimeMillis() - 3_600_000));
+            indexer.index(source);
+            Files.writeString(source, MENU.replace("French Toast", "Pain Perdu!!"));
+            assertThrows(IOException.class, () -> new UnityIndexedReader(source));
+        }
+
+        @Test
+        @DisplayName("Index of a file changed without a new modification time is rejected while racy")
+        void racyChangeIsRejected() throws IOException {
+            FileTime modified = Files.getLastModifiedTime(source);
+            Files.writeString(source, MENU.replace("French Toast", "Pain Perdu!!"));
+            Files.setLastModifiedTime(source, modified);
+            assertThrows(IOException.class, () -> new UnityIndexedReader(source));
+        }
+
+        @Test
+        @DisplayName("Times are written back once the contents are found unchanged")
+        void checkedTimesAreWrittenBack() throws IOException {
+            long touched = System.currentTimeMillis() - 3_600_000;
+            Files.setLastModifiedTime(source, FileTime.fromMillis(touched));
+            long before = System.currentTimeMillis();
+            new UnityIndexedReader(source).close();
+
+            UnityIndex index = UnityIndex.read(UnityIndex.sidecarFor(source));
+            assertEquals(touched, index.sourceModified());
+            assertTrue(index.sourceChecked() >= before);
+
+            // Trusted from now on: a change that keeps the time goes unnoticed
+            Files.writeString(source, MENU.replace("French Toast", "Pain Perdu!!"));
+            Files.setLastModifiedTime(source, FileTime.fromMillis(touched));
+            try (UnityIndexedReader reader = new UnityIndexedReader(source)) {
+                assertEquals("Pain Perdu!!", reader.find("name", 1).orElseThrow().getString(1));
+            }
+        }
+
+        @Test
+        @DisplayName("Index of a file that was only touched is accepted")
+        void touchedFileIsAccepted() throws IOException {
+            Files.setLastModifiedTime(source, FileTime.fromMillis(System.currentTimeMillis() - 3_600_000));
+            indexer.index(source);
+            Files.setLastModifiedTime(source, FileTime.fromMillis(System.currentTimeMillis()));
+            try (UnityIndexedReader reader = new UnityIndexedReader(source)) {
+                assertEquals("002", reader.find("food", 1).orElseThrow().getJSONObject(1).getString("id"));
+            }
+        }
+    }
+
+    private static List<Integer> ordinals(List<UnityIndex.Entry> entries) {
+        return entries.stream().map(UnityIndex.Entry::ordinal).toList();
+    }
+}
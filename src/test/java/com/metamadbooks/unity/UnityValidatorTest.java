@@ -4,6 +4,13 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -222,6 +229,33 @@ class UnityValidatorTest {
                     .anyMatch(e -> e.message().contains("Top level must be a JSON Array")));
         }
 
+        @Test
+        @DisplayName("Malformed input after a non-array top level is invalid JSON")
+        void malformedTopLevelValue() throws IOException {
+            for (String json : new String[] {"{garbage", "42 junk", "{\"x\": 1} junk", "\"x\" ["}) {
+                ValidationResult result = validator.validateStream(
+                        new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+                assertEquals(1, result.getErrors().size(), json);
+                assertTrue(result.getErrors().get(0).message().startsWith("Invalid JSON"), json);
+            }
+            for (String json : new String[] {"{garbage", "42 junk"}) {
+                assertTrue(validator.validate(json).getErrors().get(0).message().startsWith("Invalid JSON"), json);
+            }
+        }
+
+        @Test
+        @DisplayName("Well-formed non-array top level is reported at its start")
+        void topLevelValuePosition() throws IOException {
+            ValidationResult result = validator.validateStream(
+                    new ByteArrayInputStream("\n  {\"x\": [1, 2]}\n".getBytes(StandardCharsets.UTF_8)));
+            assertEquals(1, result.getErrors().size());
+            ValidationError error = result.getErrors().get(0);
+            assertEquals("Top level must be a JSON Array, got Object", error.message());
+            assertEquals(3, error.offset());
+            assertEquals(2, error.line());
+            assertEquals(3, error.column());
+        }
+
         @Test
         @DisplayName("Empty array is invalid")
         void emptyArray() {
@@ -297,4 +331,172 @@ class UnityValidatorTest {
                     .anyMatch(e -> e.message().contains("Invalid XML attribute name")));
         }
     }
+
+    @Nested
+    @DisplayName("Source position tests")
+    class SourcePositionTests {
+
+        @Test
+        @DisplayName("Errors carry byte offset, line and column")
+        void errorPosition() {
+            String json = """
+                ["menu",
+                  ["food", {"id": "1"}],
+                  ["1food"]
+                ]
+                """;
+            ValidationResult result = validator.validate(json);
+            assertEquals(1, result.getErrors().size());
+
+            ValidationError error = result.getErrors().get(0);
+            assertEquals("[2][0]", error.path());
+            assertEquals(json.indexOf("\"1food\""), error.offset());
+            assertEquals(3, error.line());
+            assertEquals(4, error.column());
+        }
+
+        @Test
+        @DisplayName("Every error has its own position")
+        void multipleErrorPositions() {
+            String json = "[\"x\",\n {\"1a\": 1},\n \"text\",\n {\"b\": 2}]";
+            ValidationResult result = validator.validate(json);
+            assertEquals(2, result.getErrors().size());
+
+            ValidationError attribute = result.getErrors().get(0);
+            assertEquals("[1].1a", attribute.path());
+            assertEquals(2, attribute.line());
+            assertEquals(3, attribute.column());
+
+            ValidationError content = result.getErrors().get(1);
+            assertEquals("[3]", content.path());
+            assertEquals(4, content.line());
+            assertEquals(2, content.column());
+        }
+
+        @Test
+        @DisplayName("Invalid JSON is reported at the offending byte")
+        void invalidJsonPosition() {
+            ValidationResult result = validator.validate("[\"x\",\n  \"a\" \"b\"]");
+            ValidationError error = result.getErrors().get(0);
+            assertTrue(error.message().startsWith("Invalid JSON"));
+            assertEquals(2, error.line());
+            assertEquals(7, error.column());
+            assertEquals(12, error.offset());
+        }
+
+        @Test
+        @DisplayName("Invalid escape is reported at the escape, not the string start")
+        void invalidEscapePosition() {
+            ValidationResult result = validator.validate("[\"x\", \"ab\\q\"]");
+            assertEquals(10, result.getErrors().get(0).offset());
+        }
+
+        @Test
+        @DisplayName("Columns count bytes of the UTF-8 input")
+        void columnsCountBytes() {
+            ValidationResult result = validator.validate("[\"é\", [\"1x\"]]");
+            assertEquals(9, result.getErrors().get(0).column());
+        }
+
+        @Test
+        @DisplayName("Columns of lines longer than 2 GiB do not overflow")
+        void longLineColumns() {
+            UnityTokenizer tokenizer = new UnityTokenizer(new ByteArrayInputStream(new byte[0]), 0);
+            assertEquals((3L << 30) + 1, tokenizer.column(3L << 30));
+        }
+
+        @Test
+        @DisplayName("Windows line endings count as one line")
+        void crlfLineEndings() {
+            ValidationResult result = validator.validate("[\"x\",\r\n[\"1x\"]]");
+            ValidationError error = result.getErrors().get(0);
+            assertEquals(2, error.line());
+            assertEquals(2, error.column());
+        }
+
+        @Test
+        @DisplayName("Position is shown in the error text")
+        void positionInToString() {
+            ValidationError error = validator.validate("[\"x\", [\"1x\"]]").getErrors().get(0);
+            assertEquals("[1][0]: Invalid XML element name: \"1x\" (line 1, column 8, byte 7)", error.toString());
+        }
+
+        @Test
+        @DisplayName("Errors created without a position have none")
+        void errorWithoutPosition() {
+            ValidationError error = new ValidationError("[1]", "message");
+            assertFalse(error.hasPosition());
+            assertEquals("[1]: message", error.toString());
+        }
+
+        @Test
+        @DisplayName("Files are validated with positions")
+        void validateFile(@TempDir Path tempDir) throws IOException {
+            Path file = tempDir.resolve("doc.json");
+            Files.writeString(file, "[\"x\",\n\n  [\"y\", {\"z\": []}]]");
+            ValidationResult result = validator.validateFile(file);
+            assertEquals(1, result.getErrors().size());
+            assertEquals(3, result.getErrors().get(0).line());
+            assertEquals(15, result.getErrors().get(0).column());
+        }
+    }
+
+    @Nested
+    @DisplayName("Lenient syntax tests")
+    class LenientSyntaxTests {
+
+        /** Documents that org.json accepts but that are not strict JSON. */
+        private static final String[] LENIENT = {
+                "[\"x\", 'a']",                   // single-quoted string
+                "['x']",
+                "[\"x\", abc]",                   // unquoted string
+                "[x]",
+                "[\"x\", a b]",
+                "[\"x\", {a: 1}]",                // unquoted attribute name
+                "[\"x\", 01]",                    // not a JSON number
+                "[\"x\", +1]",
+                "[\"x\", .5]",
+                "[\"x\", 1.]",
+                "[\"x\", 0x1F]",
+                "[\"x\", NaN]",
+                "[\"x\", True]",                  // literal in another case
+                "[\"x\", NULL]",
+                "[\"x\", 1e9999999999]",          // exponent out of range
+                "[\"x\",]",                       // trailing comma
+                "[\"x\", {\"a\": 1,}]",
+                "[\"x\",, \"a\"]",                // empty element
+                "[\"x\", {\"a\": 1; \"b\": 2}]",  // semicolon separator
+                "[\"x\", \"a\tb\"]",              // raw control character in string
+                "[\"x\"] junk",                   // text after the top-level array
+                "[\"x\"]]",
+        };
+
+        @Test
+        @DisplayName("validate(String) accepts org.json's lenient syntax")
+        void lenientSyntaxAccepted() {
+            for (String json : LENIENT) {
+                assertTrue(validator.validate(json).isValid(), json);
+            }
+        }
+
+        @Test
+        @DisplayName("Unity errors in lenient documents are reported without a position")
+        void lenientDocumentErrors() {
+            ValidationResult result = validator.validate("['x', ['1y'],]");
+            assertEquals(1, result.getErrors().size());
+            assertEquals("[1][0]", result.getErrors().get(0).path());
+            assertFalse(result.getErrors().get(0).hasPosition());
+        }
+
+        @Test
+        @DisplayName("Streams must be strict JSON")
+        void streamsAreStrict() throws IOException {
+            for (String json : LENIENT) {
+                ValidationResult result = validator.validateStream(
+                        new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+                assertFalse(result.isValid(), json);
+                assertTrue(result.getErrors().get(0).message().startsWith("Invalid JSON"), json);
+            }
+        }
+    }
 }